@@ -0,0 +1,31 @@
+LOCAL_PATH:= $(call my-dir)
+
+# Host microbenchmarks for the platform independent parts of MaruSettings
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := MaruSettingsBenchmarks
+LOCAL_MODULE_TAGS := optional
+LOCAL_JAR_MANIFEST := manifest.txt
+
+# android.* classes are replaced by the host tests' stand-ins
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    $(call all-java-files-under, ../tests/host/src/android) \
+    $(call all-java-files-under, ../tests/host/src/androidx) \
+    ../src/com/maru/settings/desktop/BackgroundThread.java \
+    ../src/com/maru/settings/desktop/DesktopEventJournal.java \
+    ../src/com/maru/settings/desktop/DesktopFreezer.java \
+    ../src/com/maru/settings/desktop/DesktopMetrics.java \
+    ../src/com/maru/settings/desktop/DesktopPerspective.java \
+    ../src/com/maru/settings/desktop/DesktopResourceSampler.java \
+    ../src/com/maru/settings/desktop/DesktopStateEngine.java \
+    ../src/com/maru/settings/desktop/DesktopTransitionStats.java \
+    ../src/com/maru/settings/desktop/DisplaySnapshot.java \
+    ../src/com/maru/settings/desktop/IntSet.java \
+    ../src/com/maru/settings/desktop/LatencyHistogram.java \
+    ../src/com/maru/settings/desktop/MaruDisplayListener.java \
+    ../src/com/maru/settings/desktop/MaruDisplayRegistry.java \
+    ../src/com/maru/settings/desktop/MetricHistory.java \
+    ../src/com/maru/settings/desktop/PerspectiveEventBus.java \
+
+include $(BUILD_HOST_JAVA_LIBRARY)
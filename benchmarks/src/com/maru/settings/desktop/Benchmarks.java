@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.hardware.display.DisplayManager;
+import android.mperspective.Perspective;
+import android.os.Handler;
+import android.view.Display;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Host microbenchmarks for the pure-Java hot paths of the desktop dashboard.
+ *
+ * <p>Each benchmark is warmed up, then timed over several rounds. It reports throughput and the
+ * bytes allocated per operation, measured with the HotSpot per-thread allocation counter. Pass
+ * substrings of benchmark names to only run those.
+ *
+ * <p>The numbers are only comparable with runs on the same machine and JVM. Use them as a
+ * baseline before and after changing one of these classes.
+ *
+ * <p>{@link com.maru.settings.widget.SwitchBar} needs the view system, so it is benchmarked on a
+ * device by {@code SwitchBarBenchmark} in the instrumentation tests instead.
+ */
+public final class Benchmarks {
+
+    private static final long WARMUP_NS = 1_000_000_000L;
+    private static final long ROUND_NS = 500_000_000L;
+    private static final int ROUNDS = 5;
+
+    /** Performs {@code ops} operations and returns a value derived from them. */
+    private interface Benchmark {
+        long run(int ops);
+    }
+
+    /** Keeps the JIT from dropping work whose result is never used. */
+    private static volatile long sSink;
+
+    private Benchmarks() {}
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("%-36s %16s %10s%n", "benchmark", "ops/s", "B/op");
+
+        final IntSet displays = new IntSet();
+        run(
+                args,
+                "IntSet.addRemove",
+                ops -> {
+                    long found = 0;
+                    for (int i = 0; i < ops; i++) {
+                        // a display being plugged in and out next to two that stay
+                        displays.add(2);
+                        displays.add(5);
+                        displays.add(i & 7);
+                        found += displays.size();
+                        displays.remove(i & 7);
+                        displays.remove(5);
+                        displays.remove(2);
+                    }
+                    return found;
+                });
+
+        final IntSet tracked = new IntSet();
+        tracked.add(0);
+        tracked.add(2);
+        tracked.add(5);
+        run(
+                args,
+                "IntSet.contains",
+                ops -> {
+                    long found = 0;
+                    for (int i = 0; i < ops; i++) {
+                        if (tracked.contains(i & 7)) {
+                            found++;
+                        }
+                    }
+                    return found;
+                });
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        run(
+                args,
+                "LatencyHistogram.record",
+                ops -> {
+                    for (int i = 0; i < ops; i++) {
+                        histogram.record(i & 0xfff);
+                    }
+                    return histogram.getCount();
+                });
+        run(
+                args,
+                "LatencyHistogram.getPercentile",
+                ops -> {
+                    long sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        sum += histogram.getPercentile(90);
+                    }
+                    return sum;
+                });
+
+        final MetricHistory history = new MetricHistory();
+        final long[] now = {0};
+        run(
+                args,
+                "MetricHistory.record",
+                ops -> {
+                    for (int i = 0; i < ops; i++) {
+                        now[0] += 1000;
+                        history.record(now[0], i & 0xff);
+                    }
+                    return now[0];
+                });
+        final float[] points = new float[MetricHistory.SLOTS];
+        run(
+                args,
+                "MetricHistory.read",
+                ops -> {
+                    long sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        history.read(MetricHistory.TIER_60S, now[0], points);
+                        sum += (long) points[MetricHistory.SLOTS - 1];
+                    }
+                    return sum;
+                });
+
+        final byte[] usage = "  1234567890123\n".getBytes(StandardCharsets.US_ASCII);
+        run(
+                args,
+                "DesktopResourceSampler.parseNumber",
+                ops -> {
+                    long sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        sum += DesktopResourceSampler.parseNumber(usage, 0, usage.length);
+                    }
+                    return sum;
+                });
+
+        final int[] states = {
+            Perspective.STATE_STOPPED,
+            Perspective.STATE_STARTING,
+            Perspective.STATE_RUNNING,
+            Perspective.STATE_STOPPING,
+        };
+        run(
+                args,
+                "DesktopStateEngine.resolve",
+                ops -> {
+                    long sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        final DesktopStateEngine.RenderSpec spec =
+                                DesktopStateEngine.resolve(
+                                        states[i & 3], states[(i >> 2) & 3], (i & 16) != 0);
+                        sum += spec.status;
+                    }
+                    return sum;
+                });
+
+        final File journalFile = File.createTempFile("benchmarks", ".journal");
+        journalFile.deleteOnExit();
+        final DesktopEventJournal journal = new DesktopEventJournal(journalFile);
+        journal.open();
+
+        // a state change delivered to as many subscribers as a dashboard, the tile and the policy
+        final QueueHandler busHandler = new QueueHandler();
+        final PerspectiveEventBus bus =
+                new PerspectiveEventBus(
+                        new IdlePerspective(),
+                        journal,
+                        new DesktopTransitionStats(new MetricHistory(), new MetricHistory()),
+                        busHandler);
+        final CountingSubscriber[] subscribers = {
+            new CountingSubscriber(), new CountingSubscriber(), new CountingSubscriber(),
+        };
+        for (CountingSubscriber subscriber : subscribers) {
+            bus.subscribe(subscriber, busHandler);
+        }
+        busHandler.drain();
+        run(
+                args,
+                "PerspectiveEventBus.dispatch",
+                ops -> {
+                    for (int i = 0; i < ops; i++) {
+                        bus.onPerspectiveStateChanged(states[i & 3]);
+                        busHandler.drain();
+                    }
+                    return subscribers[0].changes;
+                });
+
+        final DisplayManager displayManager = new DisplayManager();
+        final Display[] modes = {
+            new Display(1, "HDMI", 1920, 1080, 60f, false, true),
+            new Display(1, "HDMI", 3840, 2160, 30f, true, true),
+        };
+        displayManager.putDisplay(modes[0]);
+        displayManager.putDisplay(new Display(2, "Wireless", 1280, 720, 60f, false, true));
+
+        // a mode change going from the registry through the listeners to their callbacks
+        final QueueHandler displayHandler = new QueueHandler();
+        final MaruDisplayRegistry registry =
+                new MaruDisplayRegistry(displayManager, journal, displayHandler);
+        final MaruDisplayListener[] listeners = new MaruDisplayListener[3];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = new MaruDisplayListener(registry, displayHandler);
+            listeners[i].setDisplayInfoCallback(snapshots -> sSink += snapshots.length);
+            listeners[i].register();
+        }
+        displayHandler.drain();
+        // deliver the events ourselves so the stand-in's own dispatch is not measured
+        displayManager.unregisterDisplayListener(registry);
+        run(
+                args,
+                "MaruDisplayRegistry.dispatch",
+                ops -> {
+                    for (int i = 0; i < ops; i++) {
+                        displayManager.putDisplay(modes[i & 1]);
+                        registry.onDisplayChanged(1);
+                        displayHandler.drain();
+                    }
+                    return listeners[0].getEventsReceived();
+                });
+
+        // nobody listening, so every sync diffs the displays against the last known ones
+        final MaruDisplayRegistry unregistered =
+                new MaruDisplayRegistry(displayManager, journal, new QueueHandler());
+        unregistered.sync();
+        run(
+                args,
+                "MaruDisplayRegistry.sync",
+                ops -> {
+                    long sum = 0;
+                    for (int i = 0; i < ops; i++) {
+                        unregistered.sync();
+                        sum += unregistered.getPresentationDisplayCount();
+                    }
+                    return sum;
+                });
+    }
+
+    private static void run(String[] filters, String name, Benchmark benchmark) {
+        if (!selected(filters, name)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        // also finds how many ops fit in a round
+        int ops = 1;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_NS) {
+            final long roundStart = System.nanoTime();
+            sSink += benchmark.run(ops);
+            if (System.nanoTime() - roundStart < ROUND_NS / 10) {
+                ops = Math.min(ops * 2, Integer.MAX_VALUE / 2);
+            }
+        }
+
+        long totalOps = 0;
+        long totalNs = 0;
+        long totalBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long bytes = threads.getThreadAllocatedBytes(thread);
+            start = System.nanoTime();
+            long roundOps = 0;
+            while (System.nanoTime() - start < ROUND_NS) {
+                sSink += benchmark.run(ops);
+                roundOps += ops;
+            }
+            totalNs += System.nanoTime() - start;
+            totalBytes += threads.getThreadAllocatedBytes(thread) - bytes;
+            totalOps += roundOps;
+        }
+
+        System.out.printf(
+                "%-36s %,16.0f %10.2f%n",
+                name,
+                totalOps * 1e9 / totalNs,
+                (double) totalBytes / totalOps);
+    }
+
+    private static boolean selected(String[] filters, String name) {
+        if (filters.length == 0) {
+            return true;
+        }
+        for (String filter : filters) {
+            if (name.contains(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Runs whatever was posted when {@link #drain()} is called, on the calling thread. */
+    private static final class QueueHandler extends Handler {
+        private final ArrayDeque<Runnable> mQueue = new ArrayDeque<>();
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            mQueue.add(r);
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            while (mQueue.remove(r)) {
+                // keep going
+            }
+        }
+
+        void drain() {
+            Runnable r;
+            while ((r = mQueue.poll()) != null) {
+                r.run();
+            }
+        }
+    }
+
+    /** A desktop that stays stopped, the bus only asks it once. */
+    private static final class IdlePerspective implements DesktopPerspective {
+        @Override
+        public boolean isDesktopRunning() {
+            return false;
+        }
+
+        @Override
+        public boolean isDesktopSuspended() {
+            return false;
+        }
+
+        @Override
+        public void startDesktopPerspective() {}
+
+        @Override
+        public void stopDesktopPerspective() {}
+
+        @Override
+        public void suspendDesktopPerspective() {}
+
+        @Override
+        public void resumeDesktopPerspective() {}
+
+        @Override
+        public void registerPerspectiveListener(Listener listener, Handler handler) {}
+    }
+
+    private static final class CountingSubscriber implements PerspectiveEventBus.Subscriber {
+        long changes;
+
+        @Override
+        public void onPerspectiveStateChanged(int previousState, int state, int changes) {
+            this.changes += changes;
+        }
+    }
+}
@@ -2,4 +2,5 @@ package com.maru.settings;
 
 public class MaruSettings extends SettingsActivity {
     public static class DesktopDashboardActivity extends SettingsActivity {}
+    public static class DesktopLogActivity extends SettingsActivity {}
 }
@@ -0,0 +1,18 @@
+package com.maru.settings;
+
+import android.app.Application;
+
+import com.maru.settings.desktop.DesktopSuspendPolicy;
+import com.maru.settings.desktop.MirrorTileService;
+import com.maru.settings.desktop.PerspectiveEventBus;
+
+public class MaruSettingsApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // these watch the platform for the life of the process, not just while our UI is up
+        PerspectiveEventBus.getInstance(this);
+        MirrorTileService.startWatching(this);
+        DesktopSuspendPolicy.start(this);
+    }
+}
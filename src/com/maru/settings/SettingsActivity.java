@@ -28,8 +28,12 @@ public class SettingsActivity extends SettingsDrawerActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.settings_main_prefs);
         mSwitchBar = findViewById(R.id.switch_bar);
+        long trace = StartupTrace.begin("getMetaData");
         getMetaData();
+        StartupTrace.end("getMetaData", trace);
+        trace = StartupTrace.begin("switchToFragment");
         switchToFragment(mFragmentClass, mTitle);
+        StartupTrace.end("switchToFragment", trace);
     }
 
     public SwitchBar getSwitchBar() {
@@ -37,23 +41,40 @@ public class SettingsActivity extends SettingsDrawerActivity {
     }
 
     private void getMetaData() {
+        final String activityClass = getComponentName().getClassName();
+        SettingsRegistry.PageInfo page = SettingsRegistry.getPage(activityClass);
+        if (page == null) {
+            page = loadMetaData();
+            if (page == null) {
+                return;
+            }
+            SettingsRegistry.putPage(activityClass, page);
+        }
+        mFragmentClass = page.fragmentClass;
+        mTitle = page.titleRes != 0 ? getString(page.titleRes) : page.title;
+    }
+
+    private SettingsRegistry.PageInfo loadMetaData() {
         try {
             ActivityInfo ai =
                     getPackageManager()
                             .getActivityInfo(getComponentName(), PackageManager.GET_META_DATA);
             if (ai == null || ai.metaData == null) {
-                return;
+                return null;
             }
-            mFragmentClass = ai.metaData.getString(META_DATA_KEY_FRAGMENT_CLASS);
-            mTitle = ai.metaData.getString(META_DATA_KEY_TITLE);
+            return new SettingsRegistry.PageInfo(
+                    ai.metaData.getString(META_DATA_KEY_FRAGMENT_CLASS),
+                    0,
+                    ai.metaData.getString(META_DATA_KEY_TITLE));
         } catch (PackageManager.NameNotFoundException nnfe) {
             Log.d(TAG, "Cannot get Metadata for: " + getComponentName().toString());
+            return null;
         }
     }
 
     private void switchToFragment(String fragmentName, CharSequence title) {
         Bundle args = new Bundle();
-        Fragment f = Fragment.instantiate(this, fragmentName, args);
+        Fragment f = SettingsRegistry.instantiateFragment(this, fragmentName, args);
         FragmentTransaction transaction = getFragmentManager().beginTransaction();
         transaction.replace(R.id.main_content, f);
         if (title != null) {
@@ -0,0 +1,89 @@
+package com.maru.settings;
+
+import android.app.Fragment;
+import android.os.Bundle;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.maru.settings.desktop.DesktopDashboardFragment;
+import com.maru.settings.desktop.DesktopLogFragment;
+
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Startup tables for the settings pages hosted by {@link SettingsActivity}.
+ *
+ * <p>Looking up activity meta-data goes through PackageManager and instantiating a fragment by name
+ * goes through reflection. Both are on the cold start path, so the pages we know about at build
+ * time are listed here instead. Anything not listed still works, it just takes the slow path.
+ */
+final class SettingsRegistry {
+
+    static final class PageInfo {
+        final String fragmentClass;
+        final int titleRes;
+        final String title;
+
+        PageInfo(String fragmentClass, int titleRes, String title) {
+            this.fragmentClass = fragmentClass;
+            this.titleRes = titleRes;
+            this.title = title;
+        }
+    }
+
+    /** Keyed by activity class name. SettingsRegistryTest checks it against the manifest. */
+    private static final HashMap<String, PageInfo> sPages = new HashMap<>();
+
+    /** Keyed by fragment class name. */
+    private static final HashMap<String, Supplier<Fragment>> sFragmentFactories = new HashMap<>();
+
+    static {
+        sPages.put(
+                MaruSettings.DesktopDashboardActivity.class.getName(),
+                new PageInfo(
+                        DesktopDashboardFragment.class.getName(),
+                        R.string.desktop_dashboard_title,
+                        null));
+        sPages.put(
+                MaruSettings.DesktopLogActivity.class.getName(),
+                new PageInfo(DesktopLogFragment.class.getName(), R.string.desktop_log_title, null));
+
+        sFragmentFactories.put(
+                DesktopDashboardFragment.class.getName(), DesktopDashboardFragment::new);
+        sFragmentFactories.put(DesktopLogFragment.class.getName(), DesktopLogFragment::new);
+    }
+
+    private SettingsRegistry() {}
+
+    /** @return the page hosted by {@code activityClass}, or null if it is not known yet. */
+    static PageInfo getPage(String activityClass) {
+        synchronized (sPages) {
+            return sPages.get(activityClass);
+        }
+    }
+
+    /** Remember a page looked up through PackageManager for the rest of the process. */
+    static void putPage(String activityClass, PageInfo page) {
+        synchronized (sPages) {
+            sPages.put(activityClass, page);
+        }
+    }
+
+    @VisibleForTesting
+    static boolean hasFragmentFactory(String fragmentClass) {
+        return sFragmentFactories.containsKey(fragmentClass);
+    }
+
+    /** Create a fragment, preferring a direct factory over reflection. */
+    static Fragment instantiateFragment(
+            SettingsActivity activity, String fragmentClass, Bundle args) {
+        final Supplier<Fragment> factory = sFragmentFactories.get(fragmentClass);
+        if (factory == null) {
+            return Fragment.instantiate(activity, fragmentClass, args);
+        }
+        final Fragment f = factory.get();
+        f.setArguments(args);
+        return f;
+    }
+}
@@ -0,0 +1,34 @@
+package com.maru.settings;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Trace sections for the phases of opening a settings page.
+ *
+ * <p>Sections always show up in systrace/perfetto. When the {@link #TAG} log tag is enabled, e.g.
+ * with {@code adb shell setprop log.tag.MaruStartup DEBUG}, each phase's duration is also logged so
+ * that tools/startup_benchmark.sh can collect a breakdown without a trace.
+ */
+public final class StartupTrace {
+    public static final String TAG = "MaruStartup";
+
+    private static final boolean LOG_PHASES = Log.isLoggable(TAG, Log.DEBUG);
+
+    private StartupTrace() {}
+
+    /** @return a token to pass to {@link #end(String, long)} on the same thread. */
+    public static long begin(String phase) {
+        Trace.beginSection(phase);
+        return LOG_PHASES ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    public static void end(String phase, long token) {
+        Trace.endSection();
+        if (LOG_PHASES) {
+            final long durationUs = (SystemClock.elapsedRealtimeNanos() - token) / 1000;
+            Log.d(TAG, "phase=" + phase + " durationUs=" + durationUs);
+        }
+    }
+}
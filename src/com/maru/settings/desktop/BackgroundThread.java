@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * Shared background thread for binder calls into the perspective and display services and for
+ * their listener callbacks, so none of that work lands on the main thread.
+ */
+public final class BackgroundThread {
+    private static HandlerThread sThread;
+    private static Handler sHandler;
+
+    private BackgroundThread() {}
+
+    private static void ensureThreadLocked() {
+        if (sThread == null) {
+            sThread = new HandlerThread("MaruSettingsBg", Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+        }
+    }
+
+    public static Handler getHandler() {
+        synchronized (BackgroundThread.class) {
+            ensureThreadLocked();
+            return sHandler;
+        }
+    }
+}
@@ -19,22 +19,31 @@ package com.maru.settings.desktop;
 
 import android.app.DialogFragment;
 import android.content.Context;
-import android.hardware.display.DisplayManager;
-import android.mperspective.Perspective;
-import android.mperspective.PerspectiveManager;
+import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.preference.PreferenceScreen;
+import android.text.format.Formatter;
 import android.util.Log;
-import android.view.View;
+import android.util.SparseArray;
 import android.widget.Switch;
 
 import com.android.settingslib.core.lifecycle.ObservablePreferenceFragment;
 
+import com.maru.settings.MaruSettings;
 import com.maru.settings.R;
 import com.maru.settings.SettingsActivity;
+import com.maru.settings.StartupTrace;
 import com.maru.settings.widget.SwitchBar;
 import com.maru.settings.widget.ToggleSwitch;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class DesktopDashboardFragment extends ObservablePreferenceFragment
         implements SwitchBar.OnSwitchChangeListener,
                 ToggleSwitch.OnBeforeCheckedChangeListener,
@@ -43,67 +52,196 @@ public class DesktopDashboardFragment extends ObservablePreferenceFragment
     private static final String TAG = "DesktopDashboard";
 
     private static final String KEY_DESKTOP_STATUS = "desktop_status";
-
-    private PerspectiveManager mPerspectiveManager;
-    private DesktopPerspectiveListener mDesktopListener;
+    private static final String KEY_DESKTOP_LOG = "desktop_log";
+    private static final String KEY_DESKTOP_HISTORY = "desktop_history";
+    private static final String KEY_DESKTOP_CPU_HISTORY = "desktop_cpu_history";
+    private static final String KEY_DESKTOP_MEMORY_HISTORY = "desktop_memory_history";
+    private static final String KEY_DESKTOP_START_HISTORY = "desktop_start_history";
+    private static final String KEY_DESKTOP_STOP_HISTORY = "desktop_stop_history";
+    private static final String KEY_DESKTOP_RESOURCES = "desktop_resources";
+    private static final String KEY_DESKTOP_CPU = "desktop_cpu";
+    private static final String KEY_DESKTOP_MEMORY = "desktop_memory";
+    private static final String KEY_DESKTOP_IO = "desktop_io";
+    private static final String KEY_DESKTOP_DISPLAYS = "desktop_displays";
+    private static final String KEY_DESKTOP_DISPLAY_PREFIX = "desktop_display_";
+
+    private Context mAppContext;
+    private DesktopPerspective mPerspective;
+    private DesktopEventJournal mJournal;
+    private PerspectiveEventBus mPerspectiveBus;
     private boolean mDesktopListening = false;
 
-    private int mDesktopState;
-
-    private DisplayManager mDisplayManager;
     private MaruDisplayListener mMaruDisplayListener;
     private boolean mDisplayListening = false;
-    private boolean mMaruDisplayConnected = false;
+
+    /*
+     * Binder queries and listener callbacks run on the background thread, which hands the state
+     * over to the UI through mState.
+     */
+    private final Handler mBackgroundHandler = BackgroundThread.getHandler();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final DesktopDashboardState mState =
+            new DesktopDashboardState(mMainHandler, this::onDashboardStateChanged);
 
     private SwitchBar mSwitchBar;
     private boolean mSwitchBarListening = false;
 
-    private Preference mDesktopStatusSummary;
+    private DesktopStatusPreference mDesktopStatusSummary;
+    private DesktopDashboardRenderer mRenderer;
+
+    private SparklinePreference[] mSparklines;
+
+    private DesktopResourceSampler mResourceSampler;
+    private boolean mResourceSampling = false;
+    private PreferenceCategory mResourcesCategory;
+    private Preference mCpuPreference;
+    private Preference mMemoryPreference;
+    private Preference mIoPreference;
+
+    private PreferenceCategory mDisplaysCategory;
+    private final SparseArray<Preference> mDisplayPreferences = new SparseArray<>();
+    private DisplaySnapshot[] mRenderedDisplays;
 
     private static final String SHUTDOWN_DIALOG_TAG = ShutdownDialogFragment.class.getName();
     private boolean mShutdownConfirmed = false;
     private boolean mOverrideShutdownDialog = false;
 
+    private boolean mFirstViewUpdated = false;
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
+        final long trace = StartupTrace.begin("onActivityCreated");
         super.onActivityCreated(savedInstanceState);
 
         final SettingsActivity settingsActivity = (SettingsActivity) getActivity();
         final Context context = settingsActivity.getApplicationContext();
-        mPerspectiveManager =
-                (PerspectiveManager) context.getSystemService(Context.PERSPECTIVE_SERVICE);
-        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        mAppContext = context;
+        // the first SharedPreferences read hits the disk, so keep it off the main thread
+        mBackgroundHandler.post(
+                () -> {
+                    final DesktopDashboardSnapshot snapshot =
+                            DesktopDashboardSnapshot.read(context);
+                    if (snapshot != null) {
+                        mMainHandler.post(() -> renderSnapshot(snapshot));
+                    }
+                });
+        mPerspective = DesktopPerspective.Factory.get(context);
 
-        mDesktopListener = new DesktopPerspectiveListener();
+        mJournal = DesktopEventJournal.getInstance(context);
+        mPerspectiveBus = PerspectiveEventBus.getInstance(context);
 
-        mMaruDisplayListener = new MaruDisplayListener(context, mDisplayManager);
+        mMaruDisplayListener =
+                new MaruDisplayListener(
+                        MaruDisplayRegistry.getInstance(context), mBackgroundHandler);
         mMaruDisplayListener.setDisplayCallback(
-                new MaruDisplayListener.MaruDisplayCallback() {
-                    @Override
-                    public void onDisplayAdded() {
-                        Log.d(TAG, "onDisplayAdded");
-                        mMaruDisplayConnected = mMaruDisplayListener.isMaruDisplayConnected();
-                        updateView();
-                    }
-
-                    @Override
-                    public void onDisplayRemoved() {
-                        Log.d(TAG, "onDisplayRemoved");
-                        mMaruDisplayConnected = mMaruDisplayListener.isMaruDisplayConnected();
-                        updateView();
-                    }
+                connected -> {
+                    Log.d(TAG, "onMaruDisplayConnectionChanged connected=" + connected);
+                    mState.onDisplayConnectionChanged(connected);
                 });
+        mMaruDisplayListener.setDisplayInfoCallback(this::publishDisplays);
+
+        mResourceSampler =
+                new DesktopResourceSampler(mBackgroundHandler, new DesktopResourceListener());
 
         mSwitchBar = settingsActivity.getSwitchBar();
         mSwitchBar.show();
+        mRenderer = new DesktopDashboardRenderer(mSwitchBar, mDesktopStatusSummary);
+        StartupTrace.end("onActivityCreated", trace);
     }
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
-        displayResourceTiles();
-        mDesktopStatusSummary = getPreferenceScreen().findPreference(KEY_DESKTOP_STATUS);
+        final long trace = StartupTrace.begin("onCreatePreferences");
+        // built in code rather than inflated from XML to keep reflection off the startup path
+        final Context prefContext = getPreferenceManager().getContext();
+        final PreferenceScreen screen = getPreferenceManager().createPreferenceScreen(prefContext);
+        screen.setTitle(R.string.desktop_dashboard_title);
+
+        // "Fake" preference we use to emulate a TextView for displaying desktop status info
+        mDesktopStatusSummary = new DesktopStatusPreference(prefContext);
+        mDesktopStatusSummary.setKey(KEY_DESKTOP_STATUS);
         mDesktopStatusSummary.setIcon(com.android.settingslib.R.drawable.ic_info_outline_24dp);
-        mDesktopStatusSummary.setSelectable(false);
+        screen.addPreference(mDesktopStatusSummary);
+
+        // explains failures and crashes shown by the status above
+        final Preference log = new Preference(prefContext);
+        log.setKey(KEY_DESKTOP_LOG);
+        log.setTitle(R.string.desktop_log_title);
+        log.setSummary(R.string.desktop_log_summary);
+        log.setPersistent(false);
+        log.setIntent(new Intent(prefContext, MaruSettings.DesktopLogActivity.class));
+        screen.addPreference(log);
+
+        final PreferenceCategory history = new PreferenceCategory(prefContext);
+        history.setKey(KEY_DESKTOP_HISTORY);
+        history.setTitle(R.string.desktop_history_title);
+        screen.addPreference(history);
+        mSparklines =
+                new SparklinePreference[] {
+                    addSparkline(
+                            history,
+                            KEY_DESKTOP_CPU_HISTORY,
+                            R.string.desktop_cpu,
+                            DesktopMetrics.CPU_PERCENT),
+                    addSparkline(
+                            history,
+                            KEY_DESKTOP_MEMORY_HISTORY,
+                            R.string.desktop_memory,
+                            DesktopMetrics.MEMORY_RSS_MB),
+                    addSparkline(
+                            history,
+                            KEY_DESKTOP_START_HISTORY,
+                            R.string.desktop_start_latency,
+                            DesktopMetrics.START_LATENCY_MS),
+                    addSparkline(
+                            history,
+                            KEY_DESKTOP_STOP_HISTORY,
+                            R.string.desktop_stop_latency,
+                            DesktopMetrics.STOP_LATENCY_MS),
+                };
+
+        mResourcesCategory = new PreferenceCategory(prefContext);
+        mResourcesCategory.setKey(KEY_DESKTOP_RESOURCES);
+        mResourcesCategory.setTitle(R.string.desktop_resources_title);
+        mResourcesCategory.setVisible(false);
+        screen.addPreference(mResourcesCategory);
+        mCpuPreference =
+                addReadingPreference(mResourcesCategory, KEY_DESKTOP_CPU, R.string.desktop_cpu);
+        mMemoryPreference =
+                addReadingPreference(
+                        mResourcesCategory, KEY_DESKTOP_MEMORY, R.string.desktop_memory);
+        mIoPreference =
+                addReadingPreference(mResourcesCategory, KEY_DESKTOP_IO, R.string.desktop_io);
+
+        mDisplaysCategory = new PreferenceCategory(prefContext);
+        mDisplaysCategory.setKey(KEY_DESKTOP_DISPLAYS);
+        mDisplaysCategory.setTitle(R.string.desktop_displays_title);
+        mDisplaysCategory.setVisible(false);
+        screen.addPreference(mDisplaysCategory);
+
+        setPreferenceScreen(screen);
+        StartupTrace.end("onCreatePreferences", trace);
+    }
+
+    private static SparklinePreference addSparkline(
+            PreferenceCategory category, String key, int titleRes, MetricHistory history) {
+        final SparklinePreference preference =
+                new SparklinePreference(category.getContext(), history, MetricHistory.TIER_60S);
+        preference.setKey(key);
+        preference.setTitle(titleRes);
+        category.addPreference(preference);
+        return preference;
+    }
+
+    private static Preference addReadingPreference(
+            PreferenceCategory category, String key, int titleRes) {
+        final Preference preference = new Preference(category.getContext());
+        preference.setKey(key);
+        preference.setTitle(titleRes);
+        preference.setSelectable(false);
+        preference.setPersistent(false);
+        category.addPreference(preference);
+        return preference;
     }
 
     @Override
@@ -112,21 +250,22 @@ public class DesktopDashboardFragment extends ObservablePreferenceFragment
 
         if (!mSwitchBarListening) {
             mSwitchBar.addOnSwitchChangeListener(this);
-            mSwitchBar.getSwitch().setOnBeforeCheckedChangeListener(this);
+            mSwitchBar.getSwitch().addOnBeforeCheckedChangeListener(this);
             mSwitchBarListening = true;
         }
         if (!mDisplayListening) {
-            // registered on calling thread's looper
-            mDisplayManager.registerDisplayListener(mMaruDisplayListener, null);
+            mBackgroundHandler.post(mMaruDisplayListener::register);
             mDisplayListening = true;
         }
-        if (!mDesktopListening) {
-            // registered on calling thread's looper
-            mPerspectiveManager.registerPerspectiveListener(mDesktopListener, null);
-            mDesktopListening = true;
+        if (!mResourceSampling) {
+            mBackgroundHandler.post(mResourceSampler::start);
+            mResourceSampling = true;
         }
 
+        mState.setActive(true);
         initializeState();
+        // history kept growing while we were away
+        refreshSparklines();
     }
 
     @Override
@@ -135,17 +274,23 @@ public class DesktopDashboardFragment extends ObservablePreferenceFragment
 
         if (mSwitchBarListening) {
             mSwitchBar.removeOnSwitchChangeListener(this);
-            mSwitchBar.getSwitch().setOnBeforeCheckedChangeListener(null);
+            mSwitchBar.getSwitch().removeOnBeforeCheckedChangeListener(this);
             mSwitchBarListening = false;
         }
         if (mDisplayListening) {
-            mDisplayManager.unregisterDisplayListener(mMaruDisplayListener);
+            mBackgroundHandler.post(mMaruDisplayListener::unregister);
             mDisplayListening = false;
         }
         if (mDesktopListening) {
-            mPerspectiveManager.unregisterPerspectiveListener();
+            mBackgroundHandler.post(() -> mPerspectiveBus.unsubscribe(mState));
             mDesktopListening = false;
         }
+        if (mResourceSampling) {
+            // sampling stops completely until we are resumed again
+            mBackgroundHandler.post(mResourceSampler::stop);
+            mResourceSampling = false;
+        }
+        mState.setActive(false);
     }
 
     @Override
@@ -158,9 +303,7 @@ public class DesktopDashboardFragment extends ObservablePreferenceFragment
     public boolean onBeforeCheckedChanged(ToggleSwitch toggleSwitch, boolean checked) {
         if (!mOverrideShutdownDialog) {
             boolean attemptedShutdown =
-                    toggleSwitch.isChecked()
-                            && !checked
-                            && mDesktopState == Perspective.STATE_RUNNING;
+                    toggleSwitch.isChecked() && !checked && mState.isDesktopUp();
             if (attemptedShutdown) {
                 if (!mShutdownConfirmed) {
                     ShutdownDialogFragment mShutdownDialogFragment = new ShutdownDialogFragment();
@@ -196,21 +339,71 @@ public class DesktopDashboardFragment extends ObservablePreferenceFragment
 
     @Override
     public void onSwitchChanged(Switch switchView, boolean isChecked) {
-        Log.d(TAG, "onSwitchChanged isChecked=" + isChecked + ", desktop state=" + mDesktopState);
+        Log.d(
+                TAG,
+                "onSwitchChanged isChecked="
+                        + isChecked
+                        + ", desktop state="
+                        + mState.getDesktopState());
+        // both update our state prematurely so the user has immediate feedback
         if (isChecked) {
-            if (mDesktopState == Perspective.STATE_STOPPED) {
-                // prematurely update our state so the user has immediate feedback
-                updateDesktopStateIfNeeded(Perspective.STATE_STARTING);
-
-                mPerspectiveManager.startDesktopPerspective();
+            if (mState.requestStart()) {
+                DesktopTransitionStats.getInstance().onStartRequested();
+                mJournal.append(DesktopEventJournal.EVENT_USER_TOGGLE, 1);
+                mBackgroundHandler.post(mPerspective::startDesktopPerspective);
             }
-        } else {
-            if (mDesktopState == Perspective.STATE_RUNNING) {
-                // prematurely update our state so the user has immediate feedback
-                updateDesktopStateIfNeeded(Perspective.STATE_STOPPING);
+        } else if (mState.requestStop()) {
+            DesktopTransitionStats.getInstance().onStopRequested();
+            mJournal.append(DesktopEventJournal.EVENT_USER_TOGGLE, 0);
+            mBackgroundHandler.post(mPerspective::stopDesktopPerspective);
+        }
+    }
 
-                mPerspectiveManager.stopDesktopPerspective();
-            }
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.print("mDesktopState=");
+        writer.print(DesktopPerspective.stateToString(mState.getDesktopState()));
+        writer.print(" mMaruDisplayConnected=");
+        writer.println(mState.isDisplayConnected());
+        if (mMaruDisplayListener != null) {
+            writer.print(prefix);
+            writer.print("display events received=");
+            writer.print(mMaruDisplayListener.getEventsReceived());
+            writer.print(" notifications delivered=");
+            writer.println(mMaruDisplayListener.getNotificationsDelivered());
+        }
+        if (mRenderer != null) {
+            mRenderer.dump(prefix, writer);
+        }
+        if (mResourceSampler != null) {
+            writer.print(prefix);
+            writer.print("resource samples=");
+            writer.print(mResourceSampler.getSampleCount());
+            writer.print(" interval ms=");
+            writer.println(mResourceSampler.getIntervalMs());
+        }
+        if (mPerspectiveBus != null) {
+            mPerspectiveBus.dump(prefix, writer);
+        }
+        DesktopTransitionStats.getInstance().dump(prefix, writer);
+        final DesktopSuspendPolicy suspendPolicy = DesktopSuspendPolicy.getInstance();
+        if (suspendPolicy != null) {
+            suspendPolicy.dump(prefix, writer);
+        }
+        if (mJournal != null) {
+            mJournal.dump(prefix, writer);
+        }
+    }
+
+    /**
+     * Show whatever we rendered last time as soon as it is loaded. initializeState() reconciles it
+     * with the live state and the renderer only touches what turns out to be different.
+     */
+    private void renderSnapshot(DesktopDashboardSnapshot snapshot) {
+        if (mState.restore(snapshot.desktopState, snapshot.displayConnected)) {
+            mRenderer.render(snapshot.model);
         }
     }
 
@@ -219,115 +412,171 @@ public class DesktopDashboardFragment extends ObservablePreferenceFragment
          * Sync up any state that can change without accessing this fragment
          * since it's possible that we missed some events while in the background.
          */
+        mBackgroundHandler.post(
+                () -> {
+                    mMaruDisplayListener.sync();
+                    mState.setDisplayConnected(mMaruDisplayListener.isMaruDisplayConnected());
+                    publishDisplays(mMaruDisplayListener.getMaruDisplays());
+                });
+        if (!mDesktopListening) {
+            /*
+             * Subscribing replays the current desktop state, which publishes it together with the
+             * display state synced above. Callbacks are delivered on the background thread.
+             */
+            mBackgroundHandler.post(
+                    () -> mPerspectiveBus.subscribe(mState, mBackgroundHandler));
+            mDesktopListening = true;
+        }
+    }
 
-        mDesktopState =
-                mPerspectiveManager.isDesktopRunning()
-                        ? Perspective.STATE_RUNNING
-                        : Perspective.STATE_STOPPED;
+    /** Called on the background thread. The snapshots are immutable so they can be handed over. */
+    private void publishDisplays(DisplaySnapshot[] displays) {
+        mMainHandler.post(() -> renderDisplays(displays));
+    }
 
-        mMaruDisplayListener.sync();
-        mMaruDisplayConnected = mMaruDisplayListener.isMaruDisplayConnected();
+    private void renderDisplays(DisplaySnapshot[] displays) {
+        // the registry hands out the same array until something changes
+        if (!isResumed() || displays == mRenderedDisplays) {
+            return;
+        }
+        mRenderedDisplays = displays;
 
-        updateView();
+        for (int i = mDisplayPreferences.size() - 1; i >= 0; i--) {
+            final int displayId = mDisplayPreferences.keyAt(i);
+            if (indexOfDisplay(displays, displayId) < 0) {
+                mDisplaysCategory.removePreference(mDisplayPreferences.valueAt(i));
+                mDisplayPreferences.remove(displayId);
+            }
+        }
+        for (DisplaySnapshot display : displays) {
+            Preference preference = mDisplayPreferences.get(display.displayId);
+            if (preference == null) {
+                preference = new Preference(mDisplaysCategory.getContext());
+                preference.setKey(KEY_DESKTOP_DISPLAY_PREFIX + display.displayId);
+                preference.setSelectable(false);
+                preference.setPersistent(false);
+                mDisplaysCategory.addPreference(preference);
+                mDisplayPreferences.put(display.displayId, preference);
+            }
+            // both setters are no-ops if nothing changed
+            preference.setTitle(display.name);
+            preference.setSummary(
+                    getString(
+                            display.hdr
+                                    ? R.string.desktop_display_mode_hdr
+                                    : R.string.desktop_display_mode,
+                            display.width,
+                            display.height,
+                            Math.round(display.refreshRate)));
+        }
+        mDisplaysCategory.setVisible(displays.length > 0);
     }
 
-    private void updateDesktopStateIfNeeded(int state) {
-        if (mDesktopState != state) {
-            int prevState = mDesktopState;
-            mDesktopState = state;
-            updateView(prevState);
+    private void renderResources(
+            float cpuPercent, long rssBytes, long cacheBytes, long ioBytesPerSec) {
+        if (!isResumed()) {
+            return;
         }
+        final Context context = getContext();
+        mCpuPreference.setSummary(
+                cpuPercent < 0
+                        ? getString(R.string.desktop_resource_measuring)
+                        : getString(R.string.desktop_cpu_summary, Math.round(cpuPercent)));
+        mMemoryPreference.setSummary(
+                getString(
+                        R.string.desktop_memory_summary,
+                        Formatter.formatShortFileSize(context, rssBytes),
+                        Formatter.formatShortFileSize(context, cacheBytes)));
+        mIoPreference.setSummary(
+                ioBytesPerSec < 0
+                        ? getString(R.string.desktop_resource_measuring)
+                        : getString(
+                                R.string.desktop_io_summary,
+                                Formatter.formatShortFileSize(context, ioBytesPerSec)));
+        mResourcesCategory.setVisible(true);
+        refreshSparklines();
     }
 
-    private void updateView() {
-        updateView(mDesktopState);
+    private void refreshSparklines() {
+        for (SparklinePreference sparkline : mSparklines) {
+            sparkline.refresh();
+        }
+    }
+
+    private void hideResources() {
+        if (isResumed()) {
+            mResourcesCategory.setVisible(false);
+        }
+    }
+
+    private static int indexOfDisplay(DisplaySnapshot[] displays, int displayId) {
+        for (int i = 0; i < displays.length; i++) {
+            if (displays[i].displayId == displayId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Called on the main thread whenever the state shown by mState changed. */
+    private void onDashboardStateChanged(int previousState, boolean external) {
+        /*
+         * Kind of ugly but due to the way the dialog is triggered
+         * we need to override it in the unlikely case that the state
+         * changes from STARTING to STOPPED (error) or RUNNING to STOPPED (crash).
+         */
+        mOverrideShutdownDialog = external;
+        updateView(previousState);
+        mOverrideShutdownDialog = false;
     }
 
     private void updateView(final int prevDesktopState) {
+        if (!mFirstViewUpdated) {
+            mFirstViewUpdated = true;
+            final long trace = StartupTrace.begin("firstUpdateView");
+            renderView(prevDesktopState);
+            StartupTrace.end("firstUpdateView", trace);
+        } else {
+            renderView(prevDesktopState);
+        }
+    }
+
+    private void renderView(final int prevDesktopState) {
+        final int desktopState = mState.getDesktopState();
+        final boolean displayConnected = mState.isDisplayConnected();
         Log.d(
                 TAG,
                 "updateView previous desktop state="
                         + prevDesktopState
                         + ", new desktop state="
-                        + mDesktopState);
-        // common defaults to simplify state configuration
-        int hintVisibility = View.INVISIBLE;
-
-        switch (mDesktopState) {
-            case Perspective.STATE_STARTING:
-                mSwitchBar.setChecked(true);
-                mSwitchBar.setEnabled(false);
-                mDesktopStatusSummary.setTitle(R.string.desktop_status_starting);
-                break;
-            case Perspective.STATE_STOPPING:
-                mSwitchBar.setChecked(false);
-                mSwitchBar.setEnabled(false);
-                mDesktopStatusSummary.setTitle(R.string.desktop_status_stopping);
-                break;
-            case Perspective.STATE_STOPPED:
-                mSwitchBar.setChecked(false);
-                mSwitchBar.setEnabled(true);
-                if (prevDesktopState == Perspective.STATE_STOPPING
-                        || prevDesktopState == mDesktopState) {
-                    mDesktopStatusSummary.setTitle(R.string.desktop_status_stopped);
-                    if (!mMaruDisplayConnected) {
-                        mDesktopStatusSummary.setSummary(R.string.desktop_status_hint_autostart);
-                        hintVisibility = View.VISIBLE;
-                    }
-                } else if (prevDesktopState == Perspective.STATE_STARTING) {
-                    mDesktopStatusSummary.setTitle(R.string.desktop_status_start_failure);
-                } else if (prevDesktopState == Perspective.STATE_RUNNING) {
-                    mDesktopStatusSummary.setTitle(R.string.desktop_status_crash);
-                }
-                break;
-            case Perspective.STATE_RUNNING:
-                mSwitchBar.setChecked(true);
-                mSwitchBar.setEnabled(true);
-                if (prevDesktopState == Perspective.STATE_STARTING
-                        || prevDesktopState == mDesktopState) {
-                    if (mMaruDisplayConnected) {
-                        mDesktopStatusSummary.setTitle(R.string.desktop_status_running);
-                    } else {
-                        mDesktopStatusSummary.setTitle(R.string.desktop_status_running_bg);
-                        mDesktopStatusSummary.setSummary(R.string.desktop_status_hint_interact);
-                        hintVisibility = View.VISIBLE;
-                    }
-                } else if (prevDesktopState == Perspective.STATE_STOPPING) {
-                    mDesktopStatusSummary.setTitle(R.string.desktop_status_stop_failure);
-                }
-                break;
-        }
-
-        if (hintVisibility != View.VISIBLE) {
-            mDesktopStatusSummary.setSummary(null);
+                        + desktopState);
+        final DesktopStateEngine.RenderSpec spec =
+                DesktopStateEngine.resolve(prevDesktopState, desktopState, displayConnected);
+        final DesktopDashboardModel previous = mRenderer.getRenderedModel();
+        final DesktopDashboardModel model = DesktopDashboardModel.from(spec, previous);
+        mRenderer.render(model);
+        if (model != previous) {
+            DesktopDashboardSnapshot.write(mAppContext, desktopState, displayConnected, model);
         }
     }
 
-    private final class DesktopPerspectiveListener
-            implements PerspectiveManager.PerspectiveListener {
+    /** Called on the background thread. */
+    private final class DesktopResourceListener implements DesktopResourceSampler.Listener {
         @Override
-        public void onPerspectiveStateChanged(int state) {
-            Log.d(TAG, "onPerspectiveStateChanged: " + Perspective.stateToString(state));
-            /*
-             * Kind of ugly but due to the way the dialog is triggered
-             * we need to override it in the unlikely case that the state
-             * changes from STARTING to STOPPED (error) or RUNNING to STOPPED (crash).
-             */
-            mOverrideShutdownDialog = true;
-            updateDesktopStateIfNeeded(state);
-            mOverrideShutdownDialog = false;
+        public void onResourceSample(
+                float cpuPercent, long rssBytes, long cacheBytes, long ioBytesPerSec) {
+            final long now = SystemClock.elapsedRealtime();
+            if (cpuPercent >= 0) {
+                DesktopMetrics.CPU_PERCENT.record(now, cpuPercent);
+            }
+            DesktopMetrics.MEMORY_RSS_MB.record(now, rssBytes / (1024f * 1024f));
+            mMainHandler.post(
+                    () -> renderResources(cpuPercent, rssBytes, cacheBytes, ioBytesPerSec));
         }
-    }
 
-    private void displayResourceTiles() {
-        final int resId = getPreferenceScreenResId();
-        if (resId <= 0) {
-            return;
+        @Override
+        public void onResourcesUnavailable() {
+            mMainHandler.post(DesktopDashboardFragment.this::hideResources);
         }
-        addPreferencesFromResource(resId);
-    }
-
-    public int getPreferenceScreenResId() {
-        return R.xml.desktop_dashboard;
     }
 }
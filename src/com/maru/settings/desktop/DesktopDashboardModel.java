@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import com.maru.settings.R;
+
+/**
+ * Immutable snapshot of everything the desktop dashboard shows.
+ *
+ * <p>Built from a {@link DesktopStateEngine.RenderSpec} and the previous model, since some
+ * transitions keep the status that is currently shown.
+ */
+final class DesktopDashboardModel {
+    static final DesktopDashboardModel INITIAL =
+            new DesktopDashboardModel(
+                    false, true, DesktopStateEngine.STATUS_UNCHANGED, DesktopStateEngine.HINT_NONE);
+
+    final boolean checked;
+    final boolean enabled;
+    /** One of {@code DesktopStateEngine.STATUS_*}, STATUS_UNCHANGED only if nothing is shown. */
+    final int status;
+    /** One of {@code DesktopStateEngine.HINT_*}. */
+    final int hint;
+    final int titleRes;
+    final int summaryRes;
+
+    private DesktopDashboardModel(boolean checked, boolean enabled, int status, int hint) {
+        this.checked = checked;
+        this.enabled = enabled;
+        this.status = status;
+        this.hint = hint;
+        this.titleRes = statusToTitleRes(status);
+        this.summaryRes = hintToSummaryRes(hint);
+    }
+
+    /** @param spec the resolved transition, or null if the new state is unknown. */
+    static DesktopDashboardModel from(
+            DesktopStateEngine.RenderSpec spec, DesktopDashboardModel previous) {
+        if (spec == null) {
+            return previous.hint == DesktopStateEngine.HINT_NONE
+                    ? previous
+                    : new DesktopDashboardModel(
+                            previous.checked,
+                            previous.enabled,
+                            previous.status,
+                            DesktopStateEngine.HINT_NONE);
+        }
+
+        final int status =
+                spec.status == DesktopStateEngine.STATUS_UNCHANGED ? previous.status : spec.status;
+        if (spec.checked == previous.checked
+                && spec.enabled == previous.enabled
+                && status == previous.status
+                && spec.hint == previous.hint) {
+            return previous;
+        }
+        return new DesktopDashboardModel(spec.checked, spec.enabled, status, spec.hint);
+    }
+
+    /**
+     * Rebuild the model that was shown for a settled desktop state, e.g. from a snapshot.
+     *
+     * <p>The state may have changed since, so the switch stays disabled until a model built from
+     * the live state replaces this one. Otherwise a tap could act on a desktop that is long gone.
+     */
+    static DesktopDashboardModel restore(
+            int desktopState, boolean displayConnected, int status, int hint) {
+        final DesktopStateEngine.RenderSpec spec =
+                DesktopStateEngine.resolve(desktopState, desktopState, displayConnected);
+        if (spec == null) {
+            return new DesktopDashboardModel(
+                    INITIAL.checked, false, INITIAL.status, DesktopStateEngine.HINT_NONE);
+        }
+        return new DesktopDashboardModel(spec.checked, false, status, hint);
+    }
+
+    private static int statusToTitleRes(int status) {
+        switch (status) {
+            case DesktopStateEngine.STATUS_STARTING:
+                return R.string.desktop_status_starting;
+            case DesktopStateEngine.STATUS_STOPPING:
+                return R.string.desktop_status_stopping;
+            case DesktopStateEngine.STATUS_RUNNING:
+                return R.string.desktop_status_running;
+            case DesktopStateEngine.STATUS_RUNNING_BG:
+                return R.string.desktop_status_running_bg;
+            case DesktopStateEngine.STATUS_START_FAILURE:
+                return R.string.desktop_status_start_failure;
+            case DesktopStateEngine.STATUS_STOP_FAILURE:
+                return R.string.desktop_status_stop_failure;
+            case DesktopStateEngine.STATUS_CRASH:
+                return R.string.desktop_status_crash;
+            case DesktopStateEngine.STATUS_STOPPED:
+                return R.string.desktop_status_stopped;
+            case DesktopStateEngine.STATUS_SUSPENDED:
+                return R.string.desktop_status_suspended;
+            case DesktopStateEngine.STATUS_UNCHANGED:
+            default:
+                return 0;
+        }
+    }
+
+    private static int hintToSummaryRes(int hint) {
+        switch (hint) {
+            case DesktopStateEngine.HINT_INTERACT:
+                return R.string.desktop_status_hint_interact;
+            case DesktopStateEngine.HINT_AUTOSTART:
+                return R.string.desktop_status_hint_autostart;
+            case DesktopStateEngine.HINT_RESUME:
+                return R.string.desktop_status_hint_resume;
+            case DesktopStateEngine.HINT_NONE:
+            default:
+                return 0;
+        }
+    }
+}
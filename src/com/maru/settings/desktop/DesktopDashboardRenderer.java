@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.util.Log;
+
+import com.maru.settings.widget.SwitchBar;
+
+import java.io.PrintWriter;
+
+/**
+ * Pushes a {@link DesktopDashboardModel} onto the dashboard views, touching only what changed.
+ *
+ * <p>Every preference setter triggers a rebind of the preference list, so hotplug storms that keep
+ * re-rendering the same model used to rebind for nothing.
+ */
+final class DesktopDashboardRenderer {
+    private static final String TAG = "DesktopDashboardRenderer";
+
+    private final SwitchBar mSwitchBar;
+    private final DesktopStatusPreference mStatusPreference;
+
+    private DesktopDashboardModel mRendered;
+
+    private long mRenders = 0;
+    private long mSwitchUpdates = 0;
+    private long mStatusRebinds = 0;
+    private long mStatusRebindsAvoided = 0;
+    private long mInvariantViolations = 0;
+
+    DesktopDashboardRenderer(SwitchBar switchBar, DesktopStatusPreference statusPreference) {
+        mSwitchBar = switchBar;
+        mStatusPreference = statusPreference;
+    }
+
+    DesktopDashboardModel getRenderedModel() {
+        return mRendered != null ? mRendered : DesktopDashboardModel.INITIAL;
+    }
+
+    void render(DesktopDashboardModel model) {
+        mRenders++;
+
+        // compare against the widget since the user can flip the switch behind our back
+        if (mSwitchBar.isChecked() != model.checked) {
+            mSwitchBar.setChecked(model.checked);
+            mSwitchUpdates++;
+        }
+        if (mSwitchBar.isEnabled() != model.enabled) {
+            mSwitchBar.setEnabled(model.enabled);
+            mSwitchUpdates++;
+        }
+
+        if (mRendered == null
+                || mRendered.titleRes != model.titleRes
+                || mRendered.summaryRes != model.summaryRes) {
+            mStatusPreference.setStatus(model.titleRes, model.summaryRes);
+            mStatusRebinds++;
+        } else {
+            mStatusRebindsAvoided++;
+        }
+
+        mRendered = model;
+
+        // a before-checked listener can veto setChecked(), leaving the switch out of sync
+        if (mSwitchBar.isChecked() != model.checked || mSwitchBar.isEnabled() != model.enabled) {
+            mInvariantViolations++;
+            Log.w(
+                    TAG,
+                    "switch does not match rendered model: checked="
+                            + model.checked
+                            + " enabled="
+                            + model.enabled);
+        }
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("renders=");
+        writer.print(mRenders);
+        writer.print(" switch updates=");
+        writer.print(mSwitchUpdates);
+        writer.print(" status rebinds=");
+        writer.print(mStatusRebinds);
+        writer.print(" status rebinds avoided=");
+        writer.print(mStatusRebindsAvoided);
+        writer.print(" invariant violations=");
+        writer.println(mInvariantViolations);
+    }
+}
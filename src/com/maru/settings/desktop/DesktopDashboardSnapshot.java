@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The last state the desktop dashboard rendered, persisted so that the next open can show it
+ * immediately instead of waiting for the perspective and display services.
+ *
+ * <p>The app defaults to device-protected storage so the snapshot is readable before unlock too.
+ */
+final class DesktopDashboardSnapshot {
+    private static final String PREFS_NAME = "desktop_dashboard_snapshot";
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_DESKTOP_STATE = "desktop_state";
+    private static final String KEY_DISPLAY_CONNECTED = "display_connected";
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_HINT = "hint";
+
+    /** Bump whenever the meaning of the stored values changes. */
+    private static final int VERSION = 1;
+
+    final int desktopState;
+    final boolean displayConnected;
+    final DesktopDashboardModel model;
+
+    private DesktopDashboardSnapshot(
+            int desktopState, boolean displayConnected, DesktopDashboardModel model) {
+        this.desktopState = desktopState;
+        this.displayConnected = displayConnected;
+        this.model = model;
+    }
+
+    /** @return the last snapshot, or null if there is none. */
+    static DesktopDashboardSnapshot read(Context context) {
+        final SharedPreferences prefs = getPrefs(context);
+        if (prefs.getInt(KEY_VERSION, 0) != VERSION) {
+            return null;
+        }
+        final int desktopState = prefs.getInt(KEY_DESKTOP_STATE, 0);
+        final boolean displayConnected = prefs.getBoolean(KEY_DISPLAY_CONNECTED, false);
+        return new DesktopDashboardSnapshot(
+                desktopState,
+                displayConnected,
+                DesktopDashboardModel.restore(
+                        desktopState,
+                        displayConnected,
+                        prefs.getInt(KEY_STATUS, DesktopStateEngine.STATUS_UNCHANGED),
+                        prefs.getInt(KEY_HINT, DesktopStateEngine.HINT_NONE)));
+    }
+
+    /** Persist asynchronously. */
+    static void write(
+            Context context,
+            int desktopState,
+            boolean displayConnected,
+            DesktopDashboardModel model) {
+        getPrefs(context)
+                .edit()
+                .putInt(KEY_VERSION, VERSION)
+                .putInt(KEY_DESKTOP_STATE, desktopState)
+                .putBoolean(KEY_DISPLAY_CONNECTED, displayConnected)
+                .putInt(KEY_STATUS, model.status)
+                .putInt(KEY_HINT, model.hint)
+                .apply();
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
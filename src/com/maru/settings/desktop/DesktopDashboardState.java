@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.mperspective.Perspective;
+import android.os.Handler;
+
+/**
+ * The desktop and display state behind the dashboard, kept out of the fragment so it can be driven
+ * without a UI.
+ *
+ * <p>Perspective and display callbacks arrive on the background thread, which owns the {@code
+ * mBg*} fields and publishes them through a {@link DesktopStateHandoff}. The main thread applies
+ * whatever was published last and tells the {@link Listener} what to render. Toggles are applied
+ * optimistically on the main thread until the desktop catches up.
+ */
+final class DesktopDashboardState implements PerspectiveEventBus.Subscriber {
+
+    interface Listener {
+        /**
+         * Called on the main thread when the state shown needs to be rendered again.
+         *
+         * @param previousState the state to resolve the transition to {@link #getDesktopState()}
+         *     from, the same state if only the display changed
+         * @param external the desktop changed on its own rather than because of a toggle
+         */
+        void onStateChanged(int previousState, boolean external);
+    }
+
+    private final Listener mListener;
+    private final DesktopStateHandoff mHandoff;
+
+    // background thread
+    private int mBgDesktopState = Perspective.STATE_STOPPED;
+    private int mBgPreviousDesktopState = Perspective.STATE_STOPPED;
+    private boolean mBgDisplayConnected = false;
+    private int mBgPerspectiveSequence = 0;
+
+    // main thread
+    private boolean mActive = false;
+    private boolean mInitialized = false;
+    private int mDesktopState = Perspective.STATE_STOPPED;
+    private boolean mDisplayConnected = false;
+    private int mAppliedPerspectiveSequence = 0;
+
+    /** @param mainHandler where published state is applied and the listener is called */
+    DesktopDashboardState(Handler mainHandler, Listener listener) {
+        mListener = listener;
+        mHandoff = new DesktopStateHandoff(mainHandler, this::applyPublishedState);
+    }
+
+    /** Called on the background thread, e.g. after syncing displays. Publishes nothing. */
+    void setDisplayConnected(boolean connected) {
+        mBgDisplayConnected = connected;
+    }
+
+    /** Called on the background thread. */
+    void onDisplayConnectionChanged(boolean connected) {
+        mBgDisplayConnected = connected;
+        publishState(false);
+    }
+
+    /** Called on the background thread. */
+    @Override
+    public void onPerspectiveStateChanged(int previousState, int state, int changes) {
+        if (changes == 0) {
+            // the current state replayed after we subscribed, reset to it
+            mBgPreviousDesktopState = state;
+            mBgDesktopState = state;
+            publishState(true);
+            return;
+        }
+        /*
+         * Publish even if the state didn't change: conflated deliveries can bring us back
+         * to the state we had, e.g. STOPPED -> STARTING -> STOPPED after a failed start.
+         */
+        mBgPreviousDesktopState = previousState;
+        mBgDesktopState = state;
+        mBgPerspectiveSequence += changes;
+        publishState(false);
+    }
+
+    /** Called on the background thread. */
+    private void publishState(boolean reset) {
+        mHandoff.publish(
+                DesktopStateHandoff.pack(
+                        mBgDesktopState,
+                        mBgPreviousDesktopState,
+                        mBgDisplayConnected,
+                        mBgPerspectiveSequence,
+                        reset));
+    }
+
+    /** Start or stop applying published state. Anything still pending is dropped on stop. */
+    void setActive(boolean active) {
+        mActive = active;
+        if (!active) {
+            mHandoff.clear();
+        }
+    }
+
+    /**
+     * Show a state saved earlier until the live one is known.
+     *
+     * @return false if the live state made it first
+     */
+    boolean restore(int desktopState, boolean displayConnected) {
+        if (mInitialized) {
+            return false;
+        }
+        mDesktopState = desktopState;
+        mDisplayConnected = displayConnected;
+        return true;
+    }
+
+    /**
+     * The user turned the desktop on. Moves to STARTING right away for immediate feedback.
+     *
+     * @return true if the desktop should be started, false if it is not stopped
+     */
+    boolean requestStart() {
+        if (mDesktopState != Perspective.STATE_STOPPED) {
+            return false;
+        }
+        setOptimisticState(Perspective.STATE_STARTING);
+        return true;
+    }
+
+    /**
+     * The user turned the desktop off. Moves to STOPPING right away for immediate feedback.
+     *
+     * @return true if the desktop should be stopped, false if it is not up
+     */
+    boolean requestStop() {
+        if (!isDesktopUp()) {
+            return false;
+        }
+        setOptimisticState(Perspective.STATE_STOPPING);
+        return true;
+    }
+
+    private void setOptimisticState(int state) {
+        final int prevState = mDesktopState;
+        mDesktopState = state;
+        mListener.onStateChanged(prevState, false);
+    }
+
+    /** @return true if the desktop is running, suspended or not, so turning it off stops it. */
+    boolean isDesktopUp() {
+        return mDesktopState == Perspective.STATE_RUNNING
+                || mDesktopState == DesktopPerspective.STATE_SUSPENDED;
+    }
+
+    int getDesktopState() {
+        return mDesktopState;
+    }
+
+    boolean isDisplayConnected() {
+        return mDisplayConnected;
+    }
+
+    /** Called on the main thread with whatever was published last. */
+    private void applyPublishedState() {
+        final int packed = mHandoff.take();
+        if (packed == DesktopStateHandoff.NONE || !mActive) {
+            return;
+        }
+
+        final int state = DesktopStateHandoff.desktopState(packed);
+        final boolean connected = DesktopStateHandoff.isConnected(packed);
+        final int sequence = DesktopStateHandoff.sequence(packed);
+
+        if (DesktopStateHandoff.isReset(packed)) {
+            mAppliedPerspectiveSequence = sequence;
+            if (!mInitialized || state != mDesktopState || connected != mDisplayConnected) {
+                mInitialized = true;
+                mDesktopState = state;
+                mDisplayConnected = connected;
+                mListener.onStateChanged(state, false);
+            }
+            return;
+        }
+
+        final boolean connectionChanged = connected != mDisplayConnected;
+        mDisplayConnected = connected;
+        if (sequence != mAppliedPerspectiveSequence) {
+            /*
+             * Our own state may be optimistic (e.g. STARTING right after a toggle), which is the
+             * right previous state for a single change. If changes were conflated, only the last
+             * real transition tells us what happened, e.g. STOPPING -> STOPPED is not a crash.
+             */
+            final int prevState =
+                    DesktopStateHandoff.sequenceDistance(mAppliedPerspectiveSequence, sequence) > 1
+                            ? DesktopStateHandoff.previousState(packed)
+                            : mDesktopState;
+            mAppliedPerspectiveSequence = sequence;
+            if (state != mDesktopState || prevState != mDesktopState) {
+                mDesktopState = state;
+                mListener.onStateChanged(prevState, true);
+            } else if (connectionChanged) {
+                mListener.onStateChanged(state, true);
+            }
+        } else if (connectionChanged) {
+            mListener.onStateChanged(mDesktopState, false);
+        }
+    }
+}
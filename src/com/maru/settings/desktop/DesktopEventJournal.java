@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only ring journal of desktop and display events, kept in device-protected storage.
+ *
+ * <p>Records have a fixed size and are written straight into a memory-mapped file, so appending is
+ * a handful of memory stores with no syscall, and whatever was appended survives the process
+ * dying. Once the ring is full the oldest records are overwritten.
+ *
+ * <p>Timestamps are {@link SystemClock#elapsedRealtime()} and therefore restart on reboot. Every
+ * process that opens the journal appends an {@link #EVENT_JOURNAL_OPENED} record so that runs can
+ * be told apart.
+ *
+ * <p>The file is created and mapped on the {@link BackgroundThread} as soon as the journal is first
+ * requested, so no caller ever does disk I/O. Records appended before the mapping is ready are
+ * held in a small in-memory queue and written out once it is.
+ */
+public final class DesktopEventJournal {
+    private static final String TAG = "DesktopEventJournal";
+
+    private static final String FILE_NAME = "desktop_events.journal";
+
+    public static final int EVENT_JOURNAL_OPENED = 1;
+    public static final int EVENT_PERSPECTIVE_STATE = 2;
+    public static final int EVENT_DISPLAY_ADDED = 3;
+    public static final int EVENT_DISPLAY_REMOVED = 4;
+    public static final int EVENT_USER_TOGGLE = 5;
+
+    private static final int MAGIC = 0x4d455631; // "MEV1"
+    private static final int VERSION = 1;
+    private static final int CAPACITY = 4096;
+
+    // header: magic, version, capacity, reserved, total records appended
+    private static final int HEADER_SIZE = 24;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_APPENDED = 16;
+
+    // record: elapsed realtime ms, event, value
+    private static final int RECORD_SIZE = 16;
+
+    /** Records kept in memory until the file is mapped; opening takes a few milliseconds. */
+    private static final int PENDING_CAPACITY = 64;
+
+    private static DesktopEventJournal sInstance;
+
+    /** Only used to resolve the journal file when {@link #mFile} is null. */
+    private final Context mContext;
+    private final File mFile;
+    /** When this process asked for the journal, so the opened record precedes pending ones. */
+    private final long mCreatedTime = SystemClock.elapsedRealtime();
+    private MappedByteBuffer mBuffer;
+    private boolean mOpenFailed = false;
+    private long mAppended;
+
+    private final long[] mPendingTimes = new long[PENDING_CAPACITY];
+    private final int[] mPendingEvents = new int[PENDING_CAPACITY];
+    private final int[] mPendingValues = new int[PENDING_CAPACITY];
+    private int mPendingCount = 0;
+    private long mPendingDropped = 0;
+
+    public static synchronized DesktopEventJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DesktopEventJournal(context.getApplicationContext());
+            BackgroundThread.getHandler().post(sInstance::open);
+        }
+        return sInstance;
+    }
+
+    private DesktopEventJournal(Context context) {
+        mContext = context;
+        mFile = null;
+    }
+
+    /** A journal kept in {@code file} instead of device-protected storage; call {@link #open()}. */
+    @VisibleForTesting
+    DesktopEventJournal(File file) {
+        mContext = null;
+        mFile = file;
+    }
+
+    public synchronized void append(int event, int value) {
+        if (mBuffer != null) {
+            appendLocked(SystemClock.elapsedRealtime(), event, value);
+        } else if (!mOpenFailed) {
+            if (mPendingCount == PENDING_CAPACITY) {
+                mPendingDropped++;
+                return;
+            }
+            mPendingTimes[mPendingCount] = SystemClock.elapsedRealtime();
+            mPendingEvents[mPendingCount] = event;
+            mPendingValues[mPendingCount] = value;
+            mPendingCount++;
+        }
+    }
+
+    private void appendLocked(long time, int event, int value) {
+        final int position = HEADER_SIZE + (int) (mAppended % CAPACITY) * RECORD_SIZE;
+        mBuffer.putLong(position, time);
+        mBuffer.putInt(position + 8, event);
+        mBuffer.putInt(position + 12, value);
+        mAppended++;
+        // publish the record only after it is complete
+        mBuffer.putLong(OFFSET_APPENDED, mAppended);
+    }
+
+    /** Runs on the {@link BackgroundThread}. */
+    @VisibleForTesting
+    void open() {
+        // even resolving the directory may create it, so do it here rather than in getInstance()
+        final File file =
+                mFile != null
+                        ? mFile
+                        : new File(
+                                mContext.createDeviceProtectedStorageContext().getFilesDir(),
+                                FILE_NAME);
+        final long size = HEADER_SIZE + (long) CAPACITY * RECORD_SIZE;
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+            // the mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot open " + file, e);
+            buffer = null;
+        }
+
+        synchronized (this) {
+            if (buffer == null) {
+                mOpenFailed = true;
+                mPendingCount = 0;
+                return;
+            }
+            if (buffer.getInt(OFFSET_MAGIC) != MAGIC
+                    || buffer.getInt(OFFSET_VERSION) != VERSION
+                    || buffer.getInt(OFFSET_CAPACITY) != CAPACITY) {
+                buffer.putInt(OFFSET_MAGIC, MAGIC);
+                buffer.putInt(OFFSET_VERSION, VERSION);
+                buffer.putInt(OFFSET_CAPACITY, CAPACITY);
+                buffer.putLong(OFFSET_APPENDED, 0);
+            }
+            mBuffer = buffer;
+            mAppended = Math.max(0, buffer.getLong(OFFSET_APPENDED));
+            appendLocked(mCreatedTime, EVENT_JOURNAL_OPENED, Process.myPid());
+            for (int i = 0; i < mPendingCount; i++) {
+                appendLocked(mPendingTimes[i], mPendingEvents[i], mPendingValues[i]);
+            }
+            mPendingCount = 0;
+        }
+    }
+
+    /** Decode the journal from the oldest to the newest record. */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        if (mBuffer == null) {
+            writer.print(prefix);
+            writer.println(
+                    mOpenFailed
+                            ? "journal unavailable"
+                            : "journal opening, " + mPendingCount + " records pending");
+            return;
+        }
+        if (mPendingDropped > 0) {
+            writer.print(prefix);
+            writer.print("records dropped while opening=");
+            writer.println(mPendingDropped);
+        }
+        final long first = Math.max(0, mAppended - CAPACITY);
+        writer.print(prefix);
+        writer.print("journal: ");
+        writer.print(mAppended - first);
+        writer.print(" of ");
+        writer.print(mAppended);
+        writer.println(" records (time is elapsed realtime ms)");
+        for (long i = first; i < mAppended; i++) {
+            final int position = HEADER_SIZE + (int) (i % CAPACITY) * RECORD_SIZE;
+            final int event = mBuffer.getInt(position + 8);
+            final int value = mBuffer.getInt(position + 12);
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(mBuffer.getLong(position));
+            writer.print(' ');
+            writer.println(eventToString(event, value));
+        }
+    }
+
+    private static String eventToString(int event, int value) {
+        switch (event) {
+            case EVENT_JOURNAL_OPENED:
+                return "journal opened pid=" + value;
+            case EVENT_PERSPECTIVE_STATE:
+                return "perspective " + DesktopPerspective.stateToString(value);
+            case EVENT_DISPLAY_ADDED:
+                return "display added id=" + value;
+            case EVENT_DISPLAY_REMOVED:
+                return "display removed id=" + value;
+            case EVENT_USER_TOGGLE:
+                return "user toggled " + (value != 0 ? "on" : "off");
+            default:
+                return "unknown event=" + event + " value=" + value;
+        }
+    }
+}
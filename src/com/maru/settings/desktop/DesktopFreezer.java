@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Freezes and thaws the desktop container through its cgroup v1 freezer.
+ *
+ * <p>Freezing stops every task in the container where it stands and thawing lets them carry on,
+ * which takes milliseconds instead of the seconds a full shutdown and boot take. The container
+ * keeps its memory while frozen.
+ *
+ * <p>All methods do blocking file I/O and must be called off the main thread.
+ */
+final class DesktopFreezer {
+    private static final String TAG = "DesktopFreezer";
+
+    static final String FROZEN = "FROZEN";
+    static final String FREEZING = "FREEZING";
+    static final String THAWED = "THAWED";
+
+    /** Freezing completes asynchronously once every task has been stopped. */
+    private static final int FREEZE_POLL_ATTEMPTS = 50;
+    private static final long FREEZE_POLL_INTERVAL_MS = 10;
+
+    private final File mStateFile;
+    private final byte[] mReadBuffer = new byte[32];
+
+    DesktopFreezer() {
+        this(new File(DesktopResourceSampler.DEFAULT_CGROUP_ROOT));
+    }
+
+    /** @param cgroupRoot where the cgroup v1 hierarchies are mounted */
+    @VisibleForTesting
+    DesktopFreezer(File cgroupRoot) {
+        mStateFile =
+                new File(
+                        new File(
+                                new File(cgroupRoot, "freezer"),
+                                DesktopResourceSampler.CONTAINER_CGROUP),
+                        "freezer.state");
+    }
+
+    /** @return true once the container is frozen, false if it could not be frozen in time. */
+    synchronized boolean freeze() {
+        if (!writeState(FROZEN)) {
+            return false;
+        }
+        for (int i = 0; i < FREEZE_POLL_ATTEMPTS; i++) {
+            final String state = readState();
+            if (FROZEN.equals(state)) {
+                return true;
+            } else if (!FREEZING.equals(state)) {
+                break;
+            }
+            try {
+                Thread.sleep(FREEZE_POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // don't leave the container half frozen
+        Log.w(TAG, "Container did not freeze, thawing it again");
+        writeState(THAWED);
+        return false;
+    }
+
+    /** @return true if the container is thawed, which it also is if it was never frozen. */
+    synchronized boolean thaw() {
+        return writeState(THAWED);
+    }
+
+    /** @return true if the container is frozen or on its way to be. */
+    synchronized boolean isFrozen() {
+        final String state = readState();
+        return FROZEN.equals(state) || FREEZING.equals(state);
+    }
+
+    private boolean writeState(String state) {
+        try (FileOutputStream out = new FileOutputStream(mStateFile)) {
+            out.write(state.getBytes(StandardCharsets.US_ASCII));
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + state + " to " + mStateFile, e);
+            return false;
+        }
+    }
+
+    /** @return the freezer state, or null if it can't be read, e.g. the desktop is not running. */
+    private String readState() {
+        try (FileInputStream in = new FileInputStream(mStateFile)) {
+            final int n = in.read(mReadBuffer);
+            if (n <= 0) {
+                return null;
+            }
+            return new String(mReadBuffer, 0, n, StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.app.Fragment;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.maru.settings.R;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Tails the desktop container's log while resumed.
+ *
+ * <p>New lines are read on the {@link BackgroundThread} by a {@link DesktopLogReader} and appended
+ * to a ring of at most {@link #MAX_LINES} lines shown through a recycling {@link ListView}, so
+ * memory use is bounded no matter how big the log grows.
+ */
+public class DesktopLogFragment extends Fragment {
+    static final int MAX_LINES = 2000;
+
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private final Handler mBackgroundHandler = BackgroundThread.getHandler();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // confined to the background thread
+    private final DesktopLogReader mReader =
+            new DesktopLogReader(new File(DesktopLogReader.DEFAULT_LOG_FILE));
+    private boolean mBgPolling = false;
+    private final Runnable mPollRunnable = this::poll;
+
+    private LogLineAdapter mAdapter;
+    private TextView mEmptyView;
+    private boolean mPolling = false;
+
+    @Override
+    public View onCreateView(
+            LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        final View root = inflater.inflate(R.layout.desktop_log, container, false);
+        final ListView list = root.findViewById(R.id.log_list);
+        mEmptyView = root.findViewById(android.R.id.empty);
+        mAdapter = new LogLineAdapter(inflater);
+        list.setAdapter(mAdapter);
+        list.setEmptyView(mEmptyView);
+        // stick to the bottom unless the user scrolled up
+        list.setTranscriptMode(ListView.TRANSCRIPT_MODE_NORMAL);
+        list.setFastScrollEnabled(true);
+        return root;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (!mPolling) {
+            mBackgroundHandler.post(this::startPolling);
+            mPolling = true;
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        if (mPolling) {
+            mBackgroundHandler.post(this::stopPolling);
+            mPolling = false;
+        }
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.print("log=");
+        writer.print(mReader.getFile());
+        writer.print(" bytes mapped=");
+        writer.print(mReader.getBytesMapped());
+        writer.print(" bytes skipped=");
+        writer.print(mReader.getBytesSkipped());
+        if (mAdapter != null) {
+            writer.print(" lines shown=");
+            writer.print(mAdapter.getCount());
+        }
+        writer.println();
+    }
+
+    /** Called on the background thread. */
+    private void startPolling() {
+        if (!mBgPolling) {
+            mBgPolling = true;
+            poll();
+        }
+    }
+
+    /** Called on the background thread. */
+    private void stopPolling() {
+        mBgPolling = false;
+        mBackgroundHandler.removeCallbacks(mPollRunnable);
+    }
+
+    /** Called on the background thread. */
+    private void poll() {
+        if (!mBgPolling) {
+            return;
+        }
+        final ArrayList<String> lines = new ArrayList<>();
+        final boolean readable = mReader.readNewLines(lines);
+        if (!readable) {
+            mMainHandler.post(() -> mEmptyView.setText(R.string.desktop_log_unavailable));
+        } else if (!lines.isEmpty()) {
+            mMainHandler.post(() -> mAdapter.append(lines));
+        }
+        mBackgroundHandler.postDelayed(mPollRunnable, POLL_INTERVAL_MS);
+    }
+
+    /** A ring of the last {@link #MAX_LINES} lines. */
+    private static final class LogLineAdapter extends BaseAdapter {
+        private final LayoutInflater mInflater;
+        private final String[] mLines = new String[MAX_LINES];
+        private int mFirst = 0;
+        private int mCount = 0;
+
+        LogLineAdapter(LayoutInflater inflater) {
+            mInflater = inflater;
+        }
+
+        void append(ArrayList<String> lines) {
+            // only the last MAX_LINES of a big batch would survive anyway
+            final int n = lines.size();
+            for (int i = Math.max(0, n - MAX_LINES); i < n; i++) {
+                if (mCount < MAX_LINES) {
+                    mLines[(mFirst + mCount) % MAX_LINES] = lines.get(i);
+                    mCount++;
+                } else {
+                    mLines[mFirst] = lines.get(i);
+                    mFirst = (mFirst + 1) % MAX_LINES;
+                }
+            }
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String getItem(int position) {
+            return mLines[(mFirst + position) % MAX_LINES];
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView view = (TextView) convertView;
+            if (view == null) {
+                view = (TextView) mInflater.inflate(R.layout.desktop_log_line, parent, false);
+            }
+            view.setText(getItem(position));
+            return view;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Incrementally reads lines appended to a log file.
+ *
+ * <p>The reader remembers the offset it has read up to and only maps the bytes appended since, so
+ * the cost of a read depends on how much was written, not on how big the file is. At most {@link
+ * #WINDOW_BYTES} are ever mapped at once: when opening a file, or when more than that was written
+ * since the last read, older lines are skipped. A log that shrinks is assumed to have been
+ * rotated and is read again from its tail.
+ *
+ * <p>Not thread-safe; the log viewer confines it to the {@link BackgroundThread}.
+ */
+final class DesktopLogReader {
+    /** Where LXC writes the desktop container's log by default, i.e. lxcpath/name/name.log. */
+    static final String DEFAULT_LOG_FILE = "/data/maru/containers/default/default.log";
+
+    static final int WINDOW_BYTES = 256 * 1024;
+    /** Longer lines are cut off. */
+    static final int MAX_LINE_BYTES = 1024;
+
+    private final File mFile;
+    private final byte[] mLine = new byte[MAX_LINE_BYTES];
+    /** Offset of the first byte not handed out as part of a line yet, or -1 before any read. */
+    private long mOffset = -1;
+
+    private long mBytesMapped = 0;
+    private long mBytesSkipped = 0;
+
+    DesktopLogReader(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Append the complete lines written since the last call to {@code out}. A trailing line without
+     * a newline is left for the next call.
+     *
+     * @return false if the log can't be read
+     */
+    boolean readNewLines(List<String> out) {
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "r")) {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+
+            long start = mOffset;
+            boolean partialFirstLine = false;
+            if (start < 0 || size < start || size - start > WINDOW_BYTES) {
+                start = Math.max(0, size - WINDOW_BYTES);
+                // unless we're at the start of the file we're likely in the middle of a line
+                partialFirstLine = start > 0;
+                if (mOffset >= 0 && size >= mOffset) {
+                    mBytesSkipped += start - mOffset;
+                }
+            }
+            if (size == start) {
+                mOffset = start;
+                return true;
+            }
+
+            final int length = (int) (size - start);
+            final MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            mBytesMapped += length;
+
+            int lineStart = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                if (partialFirstLine) {
+                    partialFirstLine = false;
+                } else {
+                    out.add(decode(buffer, lineStart, i));
+                }
+                lineStart = i + 1;
+            }
+            if (lineStart == 0 && length == WINDOW_BYTES) {
+                // a whole window without a newline, don't get stuck on it
+                out.add(decode(buffer, 0, length));
+                lineStart = length;
+            }
+            mOffset = start + lineStart;
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private String decode(MappedByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        final int n = Math.min(end - start, MAX_LINE_BYTES);
+        buffer.position(start);
+        buffer.get(mLine, 0, n);
+        return new String(mLine, 0, n, StandardCharsets.UTF_8);
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    long getBytesMapped() {
+        return mBytesMapped;
+    }
+
+    long getBytesSkipped() {
+        return mBytesSkipped;
+    }
+}
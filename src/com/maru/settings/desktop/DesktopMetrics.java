@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+/**
+ * Process-wide histories of the desktop metrics shown on the dashboard.
+ *
+ * <p>CPU and memory are only sampled while the dashboard is in the foreground, so their histories
+ * have gaps for the time it was not. Start and stop latencies are recorded whenever they happen.
+ */
+public final class DesktopMetrics {
+    /** Desktop CPU usage as a percentage of all CPUs. */
+    public static final MetricHistory CPU_PERCENT = new MetricHistory();
+    /** Desktop resident memory in MiB. */
+    public static final MetricHistory MEMORY_RSS_MB = new MetricHistory();
+    /** Desktop start latency in milliseconds. */
+    public static final MetricHistory START_LATENCY_MS = new MetricHistory();
+    /** Desktop stop latency in milliseconds. */
+    public static final MetricHistory STOP_LATENCY_MS = new MetricHistory();
+
+    private DesktopMetrics() {}
+}
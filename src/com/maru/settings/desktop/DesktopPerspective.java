@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.mperspective.Perspective;
+import android.mperspective.PerspectiveManager;
+import android.os.Handler;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * The desktop perspective operations the settings app relies on.
+ *
+ * <p>{@link PerspectiveManager} only exists on Maru builds, so everything in this package goes
+ * through this interface instead. That keeps the desktop logic runnable against a local stand-in.
+ *
+ * <p>On top of the platform's states a running desktop can be suspended, see {@link
+ * #STATE_SUSPENDED}.
+ */
+public interface DesktopPerspective {
+
+    /**
+     * The desktop is running but its container is frozen. The perspective service knows nothing
+     * about this, to it a suspended desktop is RUNNING, so this state is reported by {@link
+     * DesktopPerspective} itself. Kept clear of the {@code Perspective.STATE_*} values.
+     */
+    int STATE_SUSPENDED = 0x10;
+
+    interface Listener {
+        /** Called with the new {@code Perspective.STATE_*} or {@link #STATE_SUSPENDED}. */
+        void onPerspectiveStateChanged(int state);
+    }
+
+    boolean isDesktopRunning();
+
+    /** @return true if the desktop is running but suspended. */
+    boolean isDesktopSuspended();
+
+    void startDesktopPerspective();
+
+    /** Stop the desktop, resuming it first if it is suspended. */
+    void stopDesktopPerspective();
+
+    /** Freeze a running desktop. Reports {@link #STATE_SUSPENDED} once it is frozen. */
+    void suspendDesktopPerspective();
+
+    /** Thaw a suspended desktop. Reports {@code Perspective.STATE_RUNNING} once it is thawed. */
+    void resumeDesktopPerspective();
+
+    /** Callbacks are delivered on {@code handler}'s thread. */
+    void registerPerspectiveListener(Listener listener, Handler handler);
+
+    /** Like {@link Perspective#stateToString(int)}, but also knows {@link #STATE_SUSPENDED}. */
+    static String stateToString(int state) {
+        return state == STATE_SUSPENDED ? "SUSPENDED" : Perspective.stateToString(state);
+    }
+
+    final class Factory {
+        private static DesktopPerspective sOverride;
+
+        private Factory() {}
+
+        public static DesktopPerspective get(Context context) {
+            synchronized (Factory.class) {
+                if (sOverride != null) {
+                    return sOverride;
+                }
+            }
+            return new Platform(
+                    (PerspectiveManager)
+                            context.getApplicationContext()
+                                    .getSystemService(Context.PERSPECTIVE_SERVICE),
+                    new DesktopFreezer());
+        }
+
+        /** Make {@link #get(Context)} return {@code perspective}, or the platform one if null. */
+        @VisibleForTesting
+        public static void setOverride(DesktopPerspective perspective) {
+            synchronized (Factory.class) {
+                sOverride = perspective;
+            }
+        }
+    }
+
+    /**
+     * Backed by the platform {@link PerspectiveManager}, plus the container's cgroup freezer for
+     * suspending, which the perspective service does not know about.
+     */
+    final class Platform implements DesktopPerspective {
+        private final PerspectiveManager mPerspectiveManager;
+        private final DesktopFreezer mFreezer;
+
+        // guarded by this
+        private Listener mListener;
+        private Handler mHandler;
+
+        Platform(PerspectiveManager perspectiveManager, DesktopFreezer freezer) {
+            mPerspectiveManager = perspectiveManager;
+            mFreezer = freezer;
+        }
+
+        @Override
+        public boolean isDesktopRunning() {
+            return mPerspectiveManager.isDesktopRunning();
+        }
+
+        @Override
+        public boolean isDesktopSuspended() {
+            return mPerspectiveManager.isDesktopRunning() && mFreezer.isFrozen();
+        }
+
+        @Override
+        public void startDesktopPerspective() {
+            mPerspectiveManager.startDesktopPerspective();
+        }
+
+        @Override
+        public void stopDesktopPerspective() {
+            // a frozen container can't shut down
+            if (mFreezer.isFrozen()) {
+                mFreezer.thaw();
+            }
+            mPerspectiveManager.stopDesktopPerspective();
+        }
+
+        @Override
+        public void suspendDesktopPerspective() {
+            if (mPerspectiveManager.isDesktopRunning() && mFreezer.freeze()) {
+                reportState(STATE_SUSPENDED);
+            }
+        }
+
+        @Override
+        public void resumeDesktopPerspective() {
+            if (mFreezer.isFrozen() && mFreezer.thaw()) {
+                reportState(Perspective.STATE_RUNNING);
+            }
+        }
+
+        @Override
+        public void registerPerspectiveListener(Listener listener, Handler handler) {
+            synchronized (this) {
+                mListener = listener;
+                mHandler = handler;
+            }
+            mPerspectiveManager.registerPerspectiveListener(
+                    listener::onPerspectiveStateChanged, handler);
+        }
+
+        private void reportState(int state) {
+            final Listener listener;
+            final Handler handler;
+            synchronized (this) {
+                listener = mListener;
+                handler = mHandler;
+            }
+            if (listener != null) {
+                handler.post(() -> listener.onPerspectiveStateChanged(state));
+            }
+        }
+    }
+}
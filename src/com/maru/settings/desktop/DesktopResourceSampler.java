@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Periodically samples CPU, memory and I/O usage of the desktop container from its cgroups.
+ *
+ * <p>The cgroup files are kept open and re-read from offset zero into a single reused buffer, and
+ * parsed in place, so a steady-state sample does not allocate. The buffer grows when a file no
+ * longer fits, e.g. blkio stats once the container has touched many devices. The polling interval
+ * doubles while readings stay stable, up to {@link #MAX_INTERVAL_MS}, and drops back to {@link
+ * #MIN_INTERVAL_MS} as soon as something moves. Nothing runs between {@link #stop()} and the next
+ * {@link #start()}.
+ *
+ * <p>The cgroup root is a constructor argument so the sampler can be pointed at a fake cgroup tree.
+ * All methods must be called on the thread of the {@link Handler} passed in, which is also where
+ * the listener is invoked.
+ */
+public final class DesktopResourceSampler {
+    /** Where the cgroup v1 hierarchies are mounted on Maru devices. */
+    public static final String DEFAULT_CGROUP_ROOT = "/sys/fs/cgroup";
+    /** The desktop's LXC container, relative to each hierarchy. */
+    public static final String CONTAINER_CGROUP = "lxc/default";
+
+    static final long MIN_INTERVAL_MS = 1000;
+    static final long MAX_INTERVAL_MS = 8000;
+
+    // changes below these count as stable
+    private static final float STABLE_CPU_PERCENT = 1f;
+    private static final long STABLE_MEMORY_BYTES = 1024 * 1024;
+    private static final long STABLE_IO_BYTES_PER_SEC = 64 * 1024;
+
+    private static final int BUFFER_SIZE = 4096;
+    /** Files larger than this are parsed as far as they fit. */
+    private static final int MAX_BUFFER_SIZE = 256 * 1024;
+
+    private static final byte[] KEY_RSS = ascii("rss ");
+    private static final byte[] KEY_CACHE = ascii("cache ");
+    private static final byte[] KEY_TOTAL = ascii("Total ");
+
+    public interface Listener {
+        /**
+         * @param cpuPercent share of all CPUs used since the last sample, or -1 on the first one
+         * @param ioBytesPerSec bytes read and written per second since the last sample, or -1 on
+         *     the first one
+         */
+        void onResourceSample(
+                float cpuPercent, long rssBytes, long cacheBytes, long ioBytesPerSec);
+
+        /** The container's cgroups can't be read, e.g. because the desktop is not running. */
+        void onResourcesUnavailable();
+    }
+
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final CgroupFile mCpuUsage;
+    private final CgroupFile mMemoryStat;
+    private final CgroupFile mIoServiceBytes;
+    private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final int mCpuCount;
+    private final Runnable mSampleRunnable = this::sample;
+
+    private boolean mStarted = false;
+    private long mIntervalMs = MIN_INTERVAL_MS;
+
+    private boolean mHavePrevious = false;
+    private long mPrevTimeNs;
+    private long mPrevCpuNs;
+    private long mPrevIoBytes;
+    private float mPrevCpuPercent = -1;
+    private long mPrevRss = -1;
+    private long mPrevCache = -1;
+    private long mPrevIoRate = -1;
+
+    // filled in by readMemoryStat()
+    private long mRss;
+    private long mCache;
+
+    private long mSamples = 0;
+
+    public DesktopResourceSampler(Handler handler, Listener listener) {
+        this(handler, listener, new File(DEFAULT_CGROUP_ROOT));
+    }
+
+    public DesktopResourceSampler(Handler handler, Listener listener, File cgroupRoot) {
+        mHandler = handler;
+        mListener = listener;
+        mCpuUsage = new CgroupFile(cgroupRoot, "cpuacct", "cpuacct.usage");
+        mMemoryStat = new CgroupFile(cgroupRoot, "memory", "memory.stat");
+        mIoServiceBytes = new CgroupFile(cgroupRoot, "blkio", "blkio.throttle.io_service_bytes");
+        mCpuCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mIntervalMs = MIN_INTERVAL_MS;
+        mHavePrevious = false;
+        mHandler.post(mSampleRunnable);
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mHandler.removeCallbacks(mSampleRunnable);
+        mCpuUsage.close();
+        mMemoryStat.close();
+        mIoServiceBytes.close();
+    }
+
+    /** @return the number of samples taken so far. */
+    public long getSampleCount() {
+        return mSamples;
+    }
+
+    /** @return the delay before the next sample. */
+    public long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    private void sample() {
+        if (!mStarted) {
+            return;
+        }
+        mSamples++;
+
+        final long nowNs = SystemClock.elapsedRealtimeNanos();
+        final long cpuNs = readFirstNumber(mCpuUsage);
+        readMemoryStat();
+        final long rss = mRss;
+        final long cache = mCache;
+        final long ioBytes = readKeyedNumber(mIoServiceBytes, KEY_TOTAL);
+
+        if (cpuNs < 0 || rss < 0) {
+            mHavePrevious = false;
+            mIntervalMs = MAX_INTERVAL_MS;
+            mListener.onResourcesUnavailable();
+            mHandler.postDelayed(mSampleRunnable, mIntervalMs);
+            return;
+        }
+
+        float cpuPercent = -1;
+        long ioRate = -1;
+        if (mHavePrevious) {
+            final long elapsedNs = Math.max(1, nowNs - mPrevTimeNs);
+            cpuPercent = 100f * (cpuNs - mPrevCpuNs) / ((float) elapsedNs * mCpuCount);
+            cpuPercent = Math.max(0f, Math.min(100f, cpuPercent));
+            if (ioBytes >= 0 && mPrevIoBytes >= 0) {
+                ioRate = Math.max(0, (ioBytes - mPrevIoBytes) * 1000000000L / elapsedNs);
+            }
+        }
+
+        final boolean stable =
+                mHavePrevious
+                        && mPrevCpuPercent >= 0
+                        && Math.abs(cpuPercent - mPrevCpuPercent) < STABLE_CPU_PERCENT
+                        && Math.abs(rss - mPrevRss) < STABLE_MEMORY_BYTES
+                        && Math.abs(cache - mPrevCache) < STABLE_MEMORY_BYTES
+                        && Math.abs(ioRate - mPrevIoRate) < STABLE_IO_BYTES_PER_SEC;
+        mIntervalMs = stable ? Math.min(MAX_INTERVAL_MS, mIntervalMs * 2) : MIN_INTERVAL_MS;
+
+        mHavePrevious = true;
+        mPrevTimeNs = nowNs;
+        mPrevCpuNs = cpuNs;
+        mPrevIoBytes = ioBytes;
+        mPrevCpuPercent = cpuPercent;
+        mPrevRss = rss;
+        mPrevCache = cache;
+        mPrevIoRate = ioRate;
+
+        mListener.onResourceSample(cpuPercent, rss, cache, ioRate);
+        // the listener may have stopped us
+        if (mStarted) {
+            mHandler.postDelayed(mSampleRunnable, mIntervalMs);
+        }
+    }
+
+    /** @return the number of bytes of {@code file} read into {@link #mBuffer}, or -1. */
+    private int read(CgroupFile file) {
+        int length = file.read(mBuffer);
+        // a full buffer may have cut the file short, so grow it and read the file again
+        while (length == mBuffer.capacity() && length < MAX_BUFFER_SIZE) {
+            mBuffer = ByteBuffer.allocate(Math.min(MAX_BUFFER_SIZE, length * 2));
+            length = file.read(mBuffer);
+        }
+        return length;
+    }
+
+    /** @return the first number in {@code file}, or -1 if it can't be read. */
+    private long readFirstNumber(CgroupFile file) {
+        final int length = read(file);
+        if (length <= 0) {
+            return -1;
+        }
+        return parseNumber(mBuffer.array(), 0, length);
+    }
+
+    /** @return the number following {@code key} at the start of a line, or -1 if there is none. */
+    private long readKeyedNumber(CgroupFile file, byte[] key) {
+        final int length = read(file);
+        if (length <= 0) {
+            return -1;
+        }
+        final byte[] data = mBuffer.array();
+        for (int lineStart = 0; lineStart < length; lineStart = nextLine(data, lineStart, length)) {
+            if (startsWith(data, lineStart, length, key)) {
+                return parseNumber(data, lineStart + key.length, length);
+            }
+        }
+        return -1;
+    }
+
+    /** Read rss and cache into {@link #mRss} and {@link #mCache} in one pass, -1 if missing. */
+    private void readMemoryStat() {
+        mRss = -1;
+        mCache = -1;
+        final int length = read(mMemoryStat);
+        final byte[] data = mBuffer.array();
+        for (int lineStart = 0; lineStart < length; lineStart = nextLine(data, lineStart, length)) {
+            if (mRss < 0 && startsWith(data, lineStart, length, KEY_RSS)) {
+                mRss = parseNumber(data, lineStart + KEY_RSS.length, length);
+            } else if (mCache < 0 && startsWith(data, lineStart, length, KEY_CACHE)) {
+                mCache = parseNumber(data, lineStart + KEY_CACHE.length, length);
+            }
+            if (mRss >= 0 && mCache >= 0) {
+                return;
+            }
+        }
+    }
+
+    /** @return the offset right after the end of the line starting at {@code offset}. */
+    private static int nextLine(byte[] data, int offset, int end) {
+        while (offset < end && data[offset] != '\n') {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int end, byte[] key) {
+        if (end - offset < key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (data[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Parse the unsigned decimal at {@code offset}, skipping leading blanks. */
+    static long parseNumber(byte[] data, int offset, int end) {
+        int i = offset;
+        while (i < end && (data[i] == ' ' || data[i] == '\t')) {
+            i++;
+        }
+        if (i == end || data[i] < '0' || data[i] > '9') {
+            return -1;
+        }
+        long value = 0;
+        while (i < end && data[i] >= '0' && data[i] <= '9') {
+            value = value * 10 + (data[i] - '0');
+            i++;
+        }
+        return value;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** A cgroup file kept open between samples. */
+    private static final class CgroupFile {
+        private final File mFile;
+        private RandomAccessFile mRaf;
+        private FileChannel mChannel;
+
+        CgroupFile(File root, String hierarchy, String name) {
+            mFile = new File(new File(new File(root, hierarchy), CONTAINER_CGROUP), name);
+        }
+
+        /** @return the number of bytes read into {@code buffer}'s array, or -1 on failure. */
+        int read(ByteBuffer buffer) {
+            buffer.clear();
+            try {
+                if (mChannel == null) {
+                    mRaf = new RandomAccessFile(mFile, "r");
+                    mChannel = mRaf.getChannel();
+                }
+                // cgroup files regenerate their contents when read from the start
+                while (buffer.hasRemaining()) {
+                    if (mChannel.read(buffer, buffer.position()) <= 0) {
+                        break;
+                    }
+                }
+                return buffer.position();
+            } catch (IOException e) {
+                // the container went away; reopen next time
+                close();
+                return -1;
+            }
+        }
+
+        void close() {
+            if (mRaf != null) {
+                try {
+                    mRaf.close();
+                } catch (IOException e) {
+                    // nothing we can do
+                }
+                mRaf = null;
+                mChannel = null;
+            }
+        }
+    }
+}
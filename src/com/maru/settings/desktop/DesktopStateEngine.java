@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.mperspective.Perspective;
+
+/**
+ * Decides what the desktop dashboard should show for a desktop state transition.
+ *
+ * <p>Every (previous state, new state, display connected) combination is resolved once when the
+ * class is loaded, so looking up a transition is a constant-time table read that never allocates.
+ * The engine knows nothing about views or preferences: surfaces map the resolved {@link
+ * RenderSpec} onto their own widgets.
+ */
+public final class DesktopStateEngine {
+
+    /** Leave whatever status is currently shown untouched. */
+    public static final int STATUS_UNCHANGED = 0;
+
+    public static final int STATUS_STARTING = 1;
+    public static final int STATUS_STOPPING = 2;
+    public static final int STATUS_RUNNING = 3;
+    public static final int STATUS_RUNNING_BG = 4;
+    public static final int STATUS_STOPPED = 5;
+    public static final int STATUS_START_FAILURE = 6;
+    public static final int STATUS_STOP_FAILURE = 7;
+    public static final int STATUS_CRASH = 8;
+    public static final int STATUS_SUSPENDED = 9;
+
+    public static final int HINT_NONE = 0;
+    public static final int HINT_INTERACT = 1;
+    public static final int HINT_AUTOSTART = 2;
+    public static final int HINT_RESUME = 3;
+
+    /** Immutable description of how a surface should render a single transition. */
+    public static final class RenderSpec {
+        public final boolean checked;
+        public final boolean enabled;
+        public final int status;
+        public final int hint;
+
+        RenderSpec(boolean checked, boolean enabled, int status, int hint) {
+            this.checked = checked;
+            this.enabled = enabled;
+            this.status = status;
+            this.hint = hint;
+        }
+
+        @Override
+        public String toString() {
+            return "RenderSpec{checked="
+                    + checked
+                    + " enabled="
+                    + enabled
+                    + " status="
+                    + status
+                    + " hint="
+                    + hint
+                    + "}";
+        }
+    }
+
+    private static final int INDEX_STOPPED = 0;
+    private static final int INDEX_STARTING = 1;
+    private static final int INDEX_RUNNING = 2;
+    private static final int INDEX_STOPPING = 3;
+    private static final int INDEX_SUSPENDED = 4;
+    /** Only valid for the previous state, e.g. before the fragment has synced once. */
+    private static final int INDEX_UNKNOWN = 5;
+
+    private static final int KNOWN_STATES = 5;
+    private static final int PREV_STATES = KNOWN_STATES + 1;
+
+    private static final RenderSpec[] TABLE = new RenderSpec[PREV_STATES * KNOWN_STATES * 2];
+
+    static {
+        for (int prev = 0; prev < PREV_STATES; prev++) {
+            for (int state = 0; state < KNOWN_STATES; state++) {
+                TABLE[index(prev, state, false)] = compute(prev, state, false);
+                TABLE[index(prev, state, true)] = compute(prev, state, true);
+            }
+        }
+    }
+
+    private DesktopStateEngine() {}
+
+    /**
+     * Resolve the render spec for a transition between two {@code Perspective.STATE_*} or {@link
+     * DesktopPerspective#STATE_SUSPENDED} values.
+     *
+     * <p>Passing the same state twice describes a refresh, e.g. after a display was connected.
+     *
+     * @return the spec to render, or {@code null} if {@code newState} is not a known state.
+     */
+    public static RenderSpec resolve(int prevState, int newState, boolean displayConnected) {
+        final int state = stateToIndex(newState);
+        if (state == INDEX_UNKNOWN) {
+            return null;
+        }
+        return TABLE[index(stateToIndex(prevState), state, displayConnected)];
+    }
+
+    private static int index(int prev, int state, boolean displayConnected) {
+        return ((prev * KNOWN_STATES) + state) * 2 + (displayConnected ? 1 : 0);
+    }
+
+    private static int stateToIndex(int state) {
+        switch (state) {
+            case Perspective.STATE_STOPPED:
+                return INDEX_STOPPED;
+            case Perspective.STATE_STARTING:
+                return INDEX_STARTING;
+            case Perspective.STATE_RUNNING:
+                return INDEX_RUNNING;
+            case Perspective.STATE_STOPPING:
+                return INDEX_STOPPING;
+            case DesktopPerspective.STATE_SUSPENDED:
+                return INDEX_SUSPENDED;
+            default:
+                return INDEX_UNKNOWN;
+        }
+    }
+
+    private static RenderSpec compute(int prev, int state, boolean displayConnected) {
+        switch (state) {
+            case INDEX_STARTING:
+                return new RenderSpec(true, false, STATUS_STARTING, HINT_NONE);
+            case INDEX_STOPPING:
+                return new RenderSpec(false, false, STATUS_STOPPING, HINT_NONE);
+            case INDEX_SUSPENDED:
+                // still on as far as the user is concerned, turning it off stops the desktop
+                return new RenderSpec(
+                        true, true, STATUS_SUSPENDED, displayConnected ? HINT_NONE : HINT_RESUME);
+            case INDEX_STOPPED:
+                if (prev == INDEX_STOPPING || prev == state) {
+                    return new RenderSpec(
+                            false,
+                            true,
+                            STATUS_STOPPED,
+                            displayConnected ? HINT_NONE : HINT_AUTOSTART);
+                } else if (prev == INDEX_STARTING) {
+                    return new RenderSpec(false, true, STATUS_START_FAILURE, HINT_NONE);
+                } else if (prev == INDEX_RUNNING || prev == INDEX_SUSPENDED) {
+                    return new RenderSpec(false, true, STATUS_CRASH, HINT_NONE);
+                }
+                return new RenderSpec(false, true, STATUS_UNCHANGED, HINT_NONE);
+            case INDEX_RUNNING:
+            default:
+                if (prev == INDEX_STARTING || prev == INDEX_SUSPENDED || prev == state) {
+                    return displayConnected
+                            ? new RenderSpec(true, true, STATUS_RUNNING, HINT_NONE)
+                            : new RenderSpec(true, true, STATUS_RUNNING_BG, HINT_INTERACT);
+                } else if (prev == INDEX_STOPPING) {
+                    return new RenderSpec(true, true, STATUS_STOP_FAILURE, HINT_NONE);
+                }
+                return new RenderSpec(true, true, STATUS_UNCHANGED, HINT_NONE);
+        }
+    }
+}
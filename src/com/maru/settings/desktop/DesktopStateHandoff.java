@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.os.Handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free handoff of the desktop + display state from the background thread to the UI.
+ *
+ * <p>The state is packed into a single immutable int. Publishing replaces whatever the consumer has
+ * not picked up yet and only posts to the consumer's handler if nothing was pending, so a burst of
+ * updates costs the UI a single message.
+ *
+ * <p>Besides the latest state the int carries the state it changed from, so a consumer that missed
+ * intermediate states (the sequence advanced by more than one) can still resolve the last real
+ * transition, e.g. STOPPING to STOPPED rather than RUNNING to STOPPED.
+ */
+final class DesktopStateHandoff {
+    static final int NONE = -1;
+
+    private static final int STATE_MASK = 0xff;
+    private static final int PREVIOUS_STATE_SHIFT = 8;
+    private static final int FLAG_CONNECTED = 1 << 16;
+    /** The state was freshly synced and is not a transition from the previous state. */
+    private static final int FLAG_RESET = 1 << 17;
+
+    private static final int SEQUENCE_SHIFT = 18;
+    static final int SEQUENCE_MASK = (1 << (31 - SEQUENCE_SHIFT)) - 1;
+
+    private final AtomicInteger mPending = new AtomicInteger(NONE);
+    private final Handler mConsumerHandler;
+    private final Runnable mConsumer;
+
+    DesktopStateHandoff(Handler consumerHandler, Runnable consumer) {
+        mConsumerHandler = consumerHandler;
+        mConsumer = consumer;
+    }
+
+    /**
+     * @param previousState the state right before {@code desktopState}
+     * @param sequence incremented on every perspective state change so that the consumer can tell
+     *     a change apart from a state it has already seen, even when the value is the same.
+     */
+    static int pack(
+            int desktopState,
+            int previousState,
+            boolean connected,
+            int sequence,
+            boolean reset) {
+        return (desktopState & STATE_MASK)
+                | ((previousState & STATE_MASK) << PREVIOUS_STATE_SHIFT)
+                | (connected ? FLAG_CONNECTED : 0)
+                | (reset ? FLAG_RESET : 0)
+                | ((sequence & SEQUENCE_MASK) << SEQUENCE_SHIFT);
+    }
+
+    static int desktopState(int packed) {
+        return packed & STATE_MASK;
+    }
+
+    static int previousState(int packed) {
+        return (packed >>> PREVIOUS_STATE_SHIFT) & STATE_MASK;
+    }
+
+    /** @return how many changes lie between two sequence numbers, allowing for wrap-around. */
+    static int sequenceDistance(int from, int to) {
+        return (to - from) & SEQUENCE_MASK;
+    }
+
+    static boolean isConnected(int packed) {
+        return (packed & FLAG_CONNECTED) != 0;
+    }
+
+    static boolean isReset(int packed) {
+        return (packed & FLAG_RESET) != 0;
+    }
+
+    static int sequence(int packed) {
+        return (packed >>> SEQUENCE_SHIFT) & SEQUENCE_MASK;
+    }
+
+    /** Publish a packed state from any thread. */
+    void publish(int packed) {
+        int prev;
+        int next;
+        do {
+            prev = mPending.get();
+            // a pending reset must survive being replaced by a later update
+            next = prev != NONE && isReset(prev) ? packed | FLAG_RESET : packed;
+        } while (!mPending.compareAndSet(prev, next));
+
+        if (prev == NONE) {
+            mConsumerHandler.post(mConsumer);
+        }
+    }
+
+    /** @return the latest published state or {@link #NONE}, and clear it. */
+    int take() {
+        return mPending.getAndSet(NONE);
+    }
+
+    void clear() {
+        mPending.set(NONE);
+        mConsumerHandler.removeCallbacks(mConsumer);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.support.v7.preference.Preference;
+
+/**
+ * A non-selectable preference that shows the desktop status.
+ *
+ * <p>Title and summary are set together through {@link #setStatus(int, int)} so that a status
+ * change costs a single {@link #notifyChanged()}, i.e. a single rebind, instead of one per field.
+ */
+public class DesktopStatusPreference extends Preference {
+    private int mTitleRes;
+    private int mSummaryRes;
+    private CharSequence mTitle;
+    private CharSequence mSummary;
+
+    public DesktopStatusPreference(Context context) {
+        super(context);
+        setSelectable(false);
+    }
+
+    /**
+     * @param titleRes string resource for the title, or 0 for none.
+     * @param summaryRes string resource for the summary, or 0 for none.
+     */
+    public void setStatus(int titleRes, int summaryRes) {
+        if (titleRes == mTitleRes && summaryRes == mSummaryRes) {
+            return;
+        }
+        mTitleRes = titleRes;
+        mSummaryRes = summaryRes;
+        final Context context = getContext();
+        mTitle = titleRes != 0 ? context.getText(titleRes) : null;
+        mSummary = summaryRes != 0 ? context.getText(summaryRes) : null;
+        notifyChanged();
+    }
+
+    @Override
+    public CharSequence getTitle() {
+        return mTitle;
+    }
+
+    @Override
+    public CharSequence getSummary() {
+        return mSummary;
+    }
+}
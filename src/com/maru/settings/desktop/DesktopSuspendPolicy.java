@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.mperspective.Perspective;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Suspends the desktop when the last external display is disconnected and resumes it when one is
+ * connected again, so undocking keeps the desktop around without it using the CPU and redocking
+ * brings it back in milliseconds instead of a full boot.
+ *
+ * <p>Only a desktop that is running when the display goes away is suspended, and only a suspended
+ * desktop is resumed. Starting a desktop without a display, or stopping it, is still up to the
+ * user.
+ *
+ * <p>Display connection changes are coalesced by {@link MaruDisplayListener}, so a flaky dock does
+ * not freeze and thaw the desktop for every glitch. Everything runs on the handler passed to the
+ * constructor.
+ */
+public final class DesktopSuspendPolicy
+        implements MaruDisplayListener.MaruDisplayCallback, PerspectiveEventBus.Subscriber {
+    private static final String TAG = "DesktopSuspendPolicy";
+
+    private static DesktopSuspendPolicy sInstance;
+
+    private final DesktopPerspective mPerspective;
+    private final MaruDisplayListener mDisplayListener;
+    private final Handler mHandler;
+
+    private int mState = Perspective.STATE_STOPPED;
+    private boolean mConnected = false;
+
+    private long mSuspends = 0;
+    private long mResumes = 0;
+
+    /** Start applying the policy for the life of the process. Safe to call more than once. */
+    public static synchronized void start(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final Handler handler = BackgroundThread.getHandler();
+            sInstance =
+                    new DesktopSuspendPolicy(
+                            DesktopPerspective.Factory.get(appContext),
+                            new MaruDisplayListener(
+                                    MaruDisplayRegistry.getInstance(appContext), handler),
+                            handler);
+            final PerspectiveEventBus bus = PerspectiveEventBus.getInstance(appContext);
+            handler.post(() -> sInstance.start(bus));
+        }
+    }
+
+    static synchronized DesktopSuspendPolicy getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DesktopSuspendPolicy(
+            DesktopPerspective perspective, MaruDisplayListener displayListener, Handler handler) {
+        mPerspective = perspective;
+        mDisplayListener = displayListener;
+        mHandler = handler;
+    }
+
+    /** Must be called on the handler's thread. */
+    @VisibleForTesting
+    void start(PerspectiveEventBus bus) {
+        mDisplayListener.setDisplayCallback(this);
+        mDisplayListener.register();
+        mDisplayListener.sync();
+        mConnected = mDisplayListener.isMaruDisplayConnected();
+        // the current state is replayed to us
+        bus.subscribe(this, mHandler);
+    }
+
+    @Override
+    public void onPerspectiveStateChanged(int previousState, int state, int changes) {
+        // only the display decides when to act, the user may run the desktop without one
+        mState = state;
+    }
+
+    @Override
+    public void onMaruDisplayConnectionChanged(boolean connected) {
+        if (connected == mConnected) {
+            return;
+        }
+        mConnected = connected;
+        if (!connected && mState == Perspective.STATE_RUNNING) {
+            Log.d(TAG, "Last display disconnected, suspending the desktop");
+            mSuspends++;
+            mPerspective.suspendDesktopPerspective();
+        } else if (connected && mState == DesktopPerspective.STATE_SUSPENDED) {
+            Log.d(TAG, "Display connected, resuming the desktop");
+            mResumes++;
+            mPerspective.resumeDesktopPerspective();
+        }
+    }
+
+    void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("suspend policy: suspends=");
+        writer.print(mSuspends);
+        writer.print(" resumes=");
+        writer.println(mResumes);
+    }
+}
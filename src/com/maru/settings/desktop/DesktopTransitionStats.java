@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.mperspective.Perspective;
+import android.os.SystemClock;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Process-wide latency histograms and outcome counters for desktop start/stop transitions.
+ *
+ * <p>A transition starts when the user toggles the desktop (or the perspective service reports
+ * STARTING/STOPPING on its own, e.g. on HDMI auto-start) and ends when the service reports RUNNING
+ * or STOPPED. Nothing here allocates after construction.
+ */
+public final class DesktopTransitionStats {
+    private static final DesktopTransitionStats sInstance =
+            new DesktopTransitionStats(
+                    DesktopMetrics.START_LATENCY_MS, DesktopMetrics.STOP_LATENCY_MS);
+
+    private static final int PENDING_NONE = 0;
+    private static final int PENDING_START = 1;
+    private static final int PENDING_STOP = 2;
+
+    private final LatencyHistogram mStartLatency = new LatencyHistogram();
+    private final LatencyHistogram mStopLatency = new LatencyHistogram();
+    private final MetricHistory mStartHistory;
+    private final MetricHistory mStopHistory;
+
+    private long mStartFailures;
+    private long mStopFailures;
+    private long mCrashes;
+
+    private int mPending = PENDING_NONE;
+    private long mPendingSinceMs;
+    private int mLastState = Perspective.STATE_STOPPED;
+
+    public static DesktopTransitionStats getInstance() {
+        return sInstance;
+    }
+
+    /** Record latencies over time into the given histories rather than {@link DesktopMetrics}. */
+    @VisibleForTesting
+    DesktopTransitionStats(MetricHistory startHistory, MetricHistory stopHistory) {
+        mStartHistory = startHistory;
+        mStopHistory = stopHistory;
+    }
+
+    public synchronized void onStartRequested() {
+        beginTransition(PENDING_START);
+    }
+
+    public synchronized void onStopRequested() {
+        beginTransition(PENDING_STOP);
+    }
+
+    /** The state was queried rather than reported as a change, so it ends nothing. */
+    public synchronized void onStateSynced(int state) {
+        mLastState = state;
+        if (state == Perspective.STATE_RUNNING || state == Perspective.STATE_STOPPED) {
+            mPending = PENDING_NONE;
+        }
+    }
+
+    public synchronized void onStateChanged(int state) {
+        final long now = SystemClock.elapsedRealtime();
+        switch (state) {
+            case Perspective.STATE_STARTING:
+                if (mPending != PENDING_START) {
+                    beginTransition(PENDING_START);
+                }
+                break;
+            case Perspective.STATE_STOPPING:
+                if (mPending != PENDING_STOP) {
+                    beginTransition(PENDING_STOP);
+                }
+                break;
+            case Perspective.STATE_RUNNING:
+                if (mPending == PENDING_START) {
+                    mStartLatency.record(now - mPendingSinceMs);
+                    mStartHistory.record(now, now - mPendingSinceMs);
+                } else if (mPending == PENDING_STOP) {
+                    mStopFailures++;
+                }
+                mPending = PENDING_NONE;
+                break;
+            case Perspective.STATE_STOPPED:
+                if (mPending == PENDING_STOP) {
+                    mStopLatency.record(now - mPendingSinceMs);
+                    mStopHistory.record(now, now - mPendingSinceMs);
+                } else if (mPending == PENDING_START) {
+                    mStartFailures++;
+                } else if (mLastState == Perspective.STATE_RUNNING
+                        || mLastState == DesktopPerspective.STATE_SUSPENDED) {
+                    mCrashes++;
+                }
+                mPending = PENDING_NONE;
+                break;
+        }
+        mLastState = state;
+    }
+
+    private void beginTransition(int pending) {
+        mPending = pending;
+        mPendingSinceMs = SystemClock.elapsedRealtime();
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        mStartLatency.dump(prefix, "desktop start latency", writer);
+        mStopLatency.dump(prefix, "desktop stop latency", writer);
+        writer.print(prefix);
+        writer.print("start_failure=");
+        writer.print(mStartFailures);
+        writer.print(" stop_failure=");
+        writer.print(mStopFailures);
+        writer.print(" crash=");
+        writer.println(mCrashes);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.view.Display;
+
+/**
+ * Immutable copy of the {@link Display} properties the settings app cares about.
+ *
+ * <p>Reading these from a {@link Display} can go through {@code DisplayManager}, so {@link
+ * MaruDisplayRegistry} captures them once per display change and everyone else reads the copy.
+ */
+public final class DisplaySnapshot {
+    public final int displayId;
+    public final String name;
+    public final int width;
+    public final int height;
+    public final float refreshRate;
+    public final boolean hdr;
+    public final boolean publicPresentation;
+
+    DisplaySnapshot(
+            int displayId,
+            String name,
+            int width,
+            int height,
+            float refreshRate,
+            boolean hdr,
+            boolean publicPresentation) {
+        this.displayId = displayId;
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.refreshRate = refreshRate;
+        this.hdr = hdr;
+        this.publicPresentation = publicPresentation;
+    }
+
+    static DisplaySnapshot from(Display display) {
+        final Display.Mode mode = display.getMode();
+        return new DisplaySnapshot(
+                display.getDisplayId(),
+                display.getName(),
+                mode != null ? mode.getPhysicalWidth() : 0,
+                mode != null ? mode.getPhysicalHeight() : 0,
+                mode != null ? mode.getRefreshRate() : display.getRefreshRate(),
+                display.isHdr(),
+                display.isPublicPresentation());
+    }
+
+    /** @return true if {@code other} describes the same display in the same mode. */
+    boolean sameAs(DisplaySnapshot other) {
+        if (other == this) {
+            return true;
+        }
+        return other != null
+                && displayId == other.displayId
+                && width == other.width
+                && height == other.height
+                && Float.compare(refreshRate, other.refreshRate) == 0
+                && hdr == other.hdr
+                && publicPresentation == other.publicPresentation
+                && (name == null ? other.name == null : name.equals(other.name));
+    }
+
+    @Override
+    public String toString() {
+        return "DisplaySnapshot{id="
+                + displayId
+                + " name="
+                + name
+                + " "
+                + width
+                + "x"
+                + height
+                + "@"
+                + refreshRate
+                + (hdr ? " hdr" : "")
+                + (publicPresentation ? " presentation" : "")
+                + "}";
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import java.util.Arrays;
+
+/**
+ * A small sorted set of primitive ints.
+ *
+ * <p>Display ids are few and change rarely, so a sorted array with binary search beats a boxed
+ * {@code HashSet<Integer>} on both lookups and garbage.
+ */
+final class IntSet {
+    private int[] mValues;
+    private int mSize;
+
+    IntSet() {
+        this(4);
+    }
+
+    IntSet(int initialCapacity) {
+        mValues = new int[Math.max(1, initialCapacity)];
+    }
+
+    /** @return true if the value was not already present. */
+    boolean add(int value) {
+        int i = Arrays.binarySearch(mValues, 0, mSize, value);
+        if (i >= 0) {
+            return false;
+        }
+        i = ~i;
+        if (mSize == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mValues[i] = value;
+        mSize++;
+        return true;
+    }
+
+    /** @return true if the value was present. */
+    boolean remove(int value) {
+        final int i = Arrays.binarySearch(mValues, 0, mSize, value);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(mValues, i + 1, mValues, i, mSize - i - 1);
+        mSize--;
+        return true;
+    }
+
+    boolean contains(int value) {
+        return Arrays.binarySearch(mValues, 0, mSize, value) >= 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** @return the value at {@code index} in ascending order. */
+    int valueAt(int index) {
+        return mValues[index];
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+}
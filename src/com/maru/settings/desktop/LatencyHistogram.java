@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import java.io.PrintWriter;
+
+/**
+ * Fixed-size histogram of millisecond latencies.
+ *
+ * <p>Buckets grow exponentially with four linear sub-buckets per power of two, so any recorded
+ * value is reported within 25% while the whole histogram is a single preallocated array. Recording
+ * never allocates.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Enough buckets for values up to about half an hour. */
+    private static final int BUCKETS = 84;
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    void record(long valueMs) {
+        final long value = Math.max(0, valueMs);
+        mCounts[bucketFor(value)]++;
+        mCount++;
+        mSum += value;
+        mMax = Math.max(mMax, value);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    /** @return an upper bound of the {@code percentile}th value, or 0 if nothing was recorded. */
+    long getPercentile(int percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (mCount * percentile + 99) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                // the last bucket also holds everything beyond its nominal range
+                return i == BUCKETS - 1 ? mMax : Math.min(bucketUpperBound(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    void dump(String prefix, String name, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print(name);
+        writer.print(": n=");
+        writer.print(mCount);
+        if (mCount > 0) {
+            writer.print(" p50=");
+            writer.print(getPercentile(50));
+            writer.print("ms p90=");
+            writer.print(getPercentile(90));
+            writer.print("ms p99=");
+            writer.print(getPercentile(99));
+            writer.print("ms avg=");
+            writer.print(mSum / mCount);
+            writer.print("ms max=");
+            writer.print(mMax);
+            writer.print("ms");
+        }
+        writer.println();
+    }
+
+    private static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exp - 1) * SUB_BUCKETS + sub);
+    }
+
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exp = bucket / SUB_BUCKETS + 1;
+        final int sub = bucket % SUB_BUCKETS;
+        final long width = 1L << (exp - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width - 1;
+    }
+}
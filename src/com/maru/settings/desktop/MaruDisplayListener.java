@@ -17,79 +17,148 @@
 
 package com.maru.settings.desktop;
 
-import android.content.Context;
-import android.hardware.display.DisplayManager;
-import android.view.Display;
-
-import java.util.HashSet;
-import java.util.Set;
+import android.os.Handler;
 
 /**
  * Utility class for keeping track of displays relevant to Maru.
  *
  * <p>Right now, this keeps track of all displays that are eligible for mirroring, i.e. all public
- * presentation displays.
+ * presentation displays. The displays themselves are tracked by the shared {@link
+ * MaruDisplayRegistry}; this class only tells a single callback when a Maru display was connected
+ * or disconnected, and optionally when any Maru display was added, removed or changed modes.
+ *
+ * <p>Flaky docks can fire bursts of add/remove events, so events are coalesced over a short window
+ * and the callback only hears about the net change, if any.
+ *
+ * <p>All methods must be called on the thread of the {@link Handler} passed in, which is also where
+ * the callback is invoked.
  */
-public class MaruDisplayListener implements DisplayManager.DisplayListener {
-    private final Context mContext;
-    private final DisplayManager mDisplayManager;
-    private Set<Integer> mMirrorableDisplays;
+public class MaruDisplayListener implements MaruDisplayRegistry.Subscriber {
+    /** Roughly one frame. */
+    public static final long DEFAULT_COALESCE_WINDOW_MS = 16;
+
+    private final MaruDisplayRegistry mRegistry;
+    private final Handler mHandler;
+    private final Runnable mNotifyRunnable = this::notifyIfConnectionChanged;
 
     public interface MaruDisplayCallback {
-        void onDisplayAdded();
+        void onMaruDisplayConnectionChanged(boolean connected);
+    }
 
-        void onDisplayRemoved();
+    public interface MaruDisplayInfoCallback {
+        /** @param displays the shared, read-only snapshots of all connected Maru displays */
+        void onMaruDisplaysChanged(DisplaySnapshot[] displays);
     }
 
     private MaruDisplayCallback mCallback;
+    private MaruDisplayInfoCallback mInfoCallback;
 
-    public MaruDisplayListener(Context context, DisplayManager displayManager) {
-        mContext = context;
-        mDisplayManager = displayManager;
-        mMirrorableDisplays = new HashSet<>();
+    private long mCoalesceWindowMs = DEFAULT_COALESCE_WINDOW_MS;
+    private boolean mNotifyPending = false;
+    private boolean mNotifiedConnected = false;
+    private boolean mDisplaysChanged = false;
+    private int mSyncedGeneration = -1;
+
+    private long mEventsReceived = 0;
+    private long mNotificationsDelivered = 0;
+
+    public MaruDisplayListener(MaruDisplayRegistry registry, Handler handler) {
+        mRegistry = registry;
+        mHandler = handler;
     }
 
-    @Override
-    public void onDisplayAdded(int displayId) {
-        Display display = mDisplayManager.getDisplay(displayId);
+    public void register() {
+        mRegistry.subscribe(this);
+    }
 
-        if (display.isPublicPresentation() && mMirrorableDisplays.add(displayId)) {
-            if (mCallback != null) {
-                mCallback.onDisplayAdded();
-            }
+    public void unregister() {
+        mRegistry.unsubscribe(this);
+        if (mNotifyPending) {
+            mHandler.removeCallbacks(mNotifyRunnable);
+            mNotifyPending = false;
         }
     }
 
     @Override
-    public void onDisplayRemoved(int displayId) {
-        if (mMirrorableDisplays.remove(displayId)) {
-            if (mCallback != null) {
-                mCallback.onDisplayRemoved();
-            }
-        }
+    public void onPresentationDisplayAdded(int displayId) {
+        onDisplayEvent();
     }
 
     @Override
-    public void onDisplayChanged(int displayId) {
-        /* no-op */
+    public void onPresentationDisplayRemoved(int displayId) {
+        onDisplayEvent();
     }
 
-    public void sync() {
-        mMirrorableDisplays.clear();
-        Display[] displays =
-                mDisplayManager.getDisplays(DisplayManager.DISPLAY_CATEGORY_PRESENTATION);
-        for (Display display : displays) {
-            if (display.isPublicPresentation()) {
-                mMirrorableDisplays.add(display.getDisplayId());
+    @Override
+    public void onPresentationDisplayChanged(int displayId) {
+        onDisplayEvent();
+    }
+
+    private void onDisplayEvent() {
+        mEventsReceived++;
+        mDisplaysChanged = true;
+        if (!mNotifyPending) {
+            mNotifyPending = true;
+            mHandler.postDelayed(mNotifyRunnable, mCoalesceWindowMs);
+        }
+    }
+
+    private void notifyIfConnectionChanged() {
+        mNotifyPending = false;
+        final boolean connected = mRegistry.hasPresentationDisplay();
+        if (connected != mNotifiedConnected) {
+            mNotifiedConnected = connected;
+            mNotificationsDelivered++;
+            if (mCallback != null) {
+                mCallback.onMaruDisplayConnectionChanged(connected);
+            }
+        }
+        if (mDisplaysChanged) {
+            mDisplaysChanged = false;
+            if (mInfoCallback != null) {
+                mInfoCallback.onMaruDisplaysChanged(mRegistry.getPresentationDisplaySnapshots());
             }
         }
     }
 
+    public void sync() {
+        mRegistry.sync();
+        final int generation = mRegistry.getGeneration();
+        if (generation != mSyncedGeneration) {
+            mSyncedGeneration = generation;
+            mNotifiedConnected = mRegistry.hasPresentationDisplay();
+        }
+    }
+
     public boolean isMaruDisplayConnected() {
-        return !mMirrorableDisplays.isEmpty();
+        return mRegistry.hasPresentationDisplay();
     }
 
     public void setDisplayCallback(MaruDisplayCallback callback) {
         mCallback = callback;
     }
+
+    public void setDisplayInfoCallback(MaruDisplayInfoCallback callback) {
+        mInfoCallback = callback;
+    }
+
+    /** @return the shared, read-only snapshots of all connected Maru displays. */
+    public DisplaySnapshot[] getMaruDisplays() {
+        return mRegistry.getPresentationDisplaySnapshots();
+    }
+
+    /** Set how long to wait for more display events before notifying the callback. */
+    public void setCoalesceWindowMs(long windowMs) {
+        mCoalesceWindowMs = Math.max(0, windowMs);
+    }
+
+    /** @return the number of raw display events received from the registry. */
+    public long getEventsReceived() {
+        return mEventsReceived;
+    }
+
+    /** @return the number of connection changes actually delivered to the callback. */
+    public long getNotificationsDelivered() {
+        return mNotificationsDelivered;
+    }
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.util.SparseArray;
+import android.view.Display;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+
+/**
+ * Process-wide registry of the displays relevant to Maru, i.e. all public presentation displays.
+ *
+ * <p>The registry holds a single {@link DisplayManager.DisplayListener} registration for the whole
+ * process while it has at least one subscriber, and fans display events out to every subscriber.
+ * The dashboard and the mirroring tile therefore share one set of binder callbacks and one display
+ * query per hotplug instead of each keeping their own.
+ *
+ * <p>Every change to the set of displays bumps a generation stamp, so clients can cheaply tell
+ * whether anything changed since they last looked.
+ *
+ * <p>Each presentation display is also kept as an immutable {@link DisplaySnapshot}, refreshed
+ * when the display changes, so looking up its mode never needs a binder call.
+ *
+ * <p>Display events are received on the {@link BackgroundThread}, which is also where subscribers
+ * are notified and where the listener is (un)registered. The registry itself can be used from any
+ * thread. Binder calls and subscriber callbacks are made without holding the registry's lock, so
+ * subscribers are free to call back into it or take their own locks.
+ */
+public final class MaruDisplayRegistry implements DisplayManager.DisplayListener {
+
+    public interface Subscriber {
+        void onPresentationDisplayAdded(int displayId);
+
+        void onPresentationDisplayRemoved(int displayId);
+
+        /** The display's {@link DisplaySnapshot} changed, e.g. it switched modes. */
+        void onPresentationDisplayChanged(int displayId);
+    }
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+    private static final DisplaySnapshot[] NO_SNAPSHOTS = new DisplaySnapshot[0];
+
+    private static final int EVENT_ADDED = 0;
+    private static final int EVENT_REMOVED = 1;
+    private static final int EVENT_CHANGED = 2;
+
+    private static MaruDisplayRegistry sInstance;
+
+    private final DisplayManager mDisplayManager;
+    private final DesktopEventJournal mJournal;
+    private final Handler mHandler;
+    private final IntSet mPresentationDisplays = new IntSet();
+    private final SparseArray<DisplaySnapshot> mSnapshots = new SparseArray<>();
+    private final SparseArray<DisplaySnapshot> mSyncScratch = new SparseArray<>();
+    /** Lazily rebuilt from {@link #mSnapshots}, null when stale. */
+    private DisplaySnapshot[] mSnapshotArray = NO_SNAPSHOTS;
+    private int mGeneration = 0;
+
+    private Subscriber[] mSubscribers = NO_SUBSCRIBERS;
+    /** Whether we are, or are about to be, registered with {@link DisplayManager}. */
+    private boolean mRegistered = false;
+    private boolean mNeedsSync = true;
+    private final Runnable mUpdateRegistrationRunnable = this::updateRegistration;
+
+    /*
+     * Events queued under the lock and dispatched once it is released. Only touched on the
+     * background thread.
+     */
+    private int[] mEventTypes = new int[4];
+    private int[] mEventDisplayIds = new int[4];
+    private int mEventCount = 0;
+
+    public static synchronized MaruDisplayRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance =
+                    new MaruDisplayRegistry(
+                            (DisplayManager) appContext.getSystemService(Context.DISPLAY_SERVICE),
+                            DesktopEventJournal.getInstance(appContext));
+        }
+        return sInstance;
+    }
+
+    private MaruDisplayRegistry(DisplayManager displayManager, DesktopEventJournal journal) {
+        this(displayManager, journal, BackgroundThread.getHandler());
+    }
+
+    /** Display events are received and dispatched on {@code handler}'s thread. */
+    @VisibleForTesting
+    MaruDisplayRegistry(
+            DisplayManager displayManager, DesktopEventJournal journal, Handler handler) {
+        mDisplayManager = displayManager;
+        mJournal = journal;
+        mHandler = handler;
+    }
+
+    public void subscribe(Subscriber subscriber) {
+        synchronized (this) {
+            for (Subscriber s : mSubscribers) {
+                if (s == subscriber) {
+                    return;
+                }
+            }
+            final Subscriber[] subscribers = Arrays.copyOf(mSubscribers, mSubscribers.length + 1);
+            subscribers[mSubscribers.length] = subscriber;
+            mSubscribers = subscribers;
+            if (mRegistered) {
+                return;
+            }
+        }
+        // registering is a binder call, make it on the background thread and outside the lock
+        mHandler.post(mUpdateRegistrationRunnable);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        synchronized (this) {
+            final int n = mSubscribers.length;
+            for (int i = 0; i < n; i++) {
+                if (mSubscribers[i] == subscriber) {
+                    if (n == 1) {
+                        mSubscribers = NO_SUBSCRIBERS;
+                    } else {
+                        final Subscriber[] subscribers = new Subscriber[n - 1];
+                        System.arraycopy(mSubscribers, 0, subscribers, 0, i);
+                        System.arraycopy(mSubscribers, i + 1, subscribers, i, n - i - 1);
+                        mSubscribers = subscribers;
+                    }
+                    break;
+                }
+            }
+            if (!mRegistered || mSubscribers.length > 0) {
+                return;
+            }
+        }
+        mHandler.post(mUpdateRegistrationRunnable);
+    }
+
+    /** Runs on the {@link BackgroundThread}, so registration changes are applied in order. */
+    private void updateRegistration() {
+        final boolean register;
+        synchronized (this) {
+            register = mSubscribers.length > 0;
+            if (register == mRegistered) {
+                return;
+            }
+            mRegistered = register;
+            if (register) {
+                // we may have missed events while nobody was listening
+                mNeedsSync = true;
+            }
+        }
+        if (register) {
+            mDisplayManager.registerDisplayListener(this, mHandler);
+            sync();
+        } else {
+            mDisplayManager.unregisterDisplayListener(this);
+        }
+    }
+
+    @Override
+    public void onDisplayAdded(int displayId) {
+        final Display display = mDisplayManager.getDisplay(displayId);
+        // only snapshot the displays we are going to keep
+        if (display == null || !display.isPublicPresentation()) {
+            return;
+        }
+        final DisplaySnapshot snapshot = DisplaySnapshot.from(display);
+        synchronized (this) {
+            putPresentationDisplayLocked(snapshot);
+        }
+        dispatchEvents();
+    }
+
+    private void putPresentationDisplayLocked(DisplaySnapshot snapshot) {
+        final int displayId = snapshot.displayId;
+        if (mPresentationDisplays.add(displayId)) {
+            mSnapshots.put(displayId, snapshot);
+            mSnapshotArray = null;
+            mGeneration++;
+            mJournal.append(DesktopEventJournal.EVENT_DISPLAY_ADDED, displayId);
+            queueEventLocked(EVENT_ADDED, displayId);
+        } else if (!snapshot.sameAs(mSnapshots.get(displayId))) {
+            mSnapshots.put(displayId, snapshot);
+            mSnapshotArray = null;
+            queueEventLocked(EVENT_CHANGED, displayId);
+        }
+    }
+
+    @Override
+    public void onDisplayRemoved(int displayId) {
+        synchronized (this) {
+            removePresentationDisplayLocked(displayId);
+        }
+        dispatchEvents();
+    }
+
+    private void removePresentationDisplayLocked(int displayId) {
+        if (mPresentationDisplays.remove(displayId)) {
+            mSnapshots.remove(displayId);
+            mSnapshotArray = null;
+            mGeneration++;
+            mJournal.append(DesktopEventJournal.EVENT_DISPLAY_REMOVED, displayId);
+            queueEventLocked(EVENT_REMOVED, displayId);
+        }
+    }
+
+    @Override
+    public void onDisplayChanged(int displayId) {
+        // the built-in display changes all the time, only look at the ones we track
+        synchronized (this) {
+            if (!mPresentationDisplays.contains(displayId)) {
+                return;
+            }
+        }
+        final Display display = mDisplayManager.getDisplay(displayId);
+        if (display == null) {
+            // a removal is on its way
+            return;
+        }
+        final DisplaySnapshot snapshot = DisplaySnapshot.from(display);
+        synchronized (this) {
+            if (snapshot.publicPresentation) {
+                putPresentationDisplayLocked(snapshot);
+            } else {
+                removePresentationDisplayLocked(displayId);
+            }
+        }
+        dispatchEvents();
+    }
+
+    /**
+     * Make sure the presentation displays are up-to-date.
+     *
+     * <p>This is free while the registry is registered with {@link DisplayManager} since every
+     * change is already delivered to us. Otherwise the current displays are diffed against the last
+     * known set and subscribers are only notified about displays that appeared, disappeared or
+     * changed.
+     *
+     * <p>Must be called on the {@link BackgroundThread}.
+     */
+    public void sync() {
+        synchronized (this) {
+            if (mRegistered && !mNeedsSync) {
+                return;
+            }
+            mNeedsSync = false;
+        }
+        final Display[] displays =
+                mDisplayManager.getDisplays(DisplayManager.DISPLAY_CATEGORY_PRESENTATION);
+        // we only get here when nobody was listening, so even the displays we know about may have
+        // changed modes since their snapshot was taken
+        final SparseArray<DisplaySnapshot> current = mSyncScratch;
+        current.clear();
+        for (Display display : displays) {
+            if (display.isPublicPresentation()) {
+                current.put(display.getDisplayId(), DisplaySnapshot.from(display));
+            }
+        }
+        synchronized (this) {
+            syncLocked(current);
+        }
+        current.clear();
+        dispatchEvents();
+    }
+
+    private void syncLocked(SparseArray<DisplaySnapshot> current) {
+        for (int i = mPresentationDisplays.size() - 1; i >= 0; i--) {
+            final int displayId = mPresentationDisplays.valueAt(i);
+            if (current.get(displayId) == null) {
+                removePresentationDisplayLocked(displayId);
+            }
+        }
+        // unchanged displays keep their cached snapshot, see putPresentationDisplayLocked()
+        for (int i = 0; i < current.size(); i++) {
+            putPresentationDisplayLocked(current.valueAt(i));
+        }
+    }
+
+    private void queueEventLocked(int type, int displayId) {
+        if (mEventCount == mEventTypes.length) {
+            mEventTypes = Arrays.copyOf(mEventTypes, mEventCount * 2);
+            mEventDisplayIds = Arrays.copyOf(mEventDisplayIds, mEventCount * 2);
+        }
+        mEventTypes[mEventCount] = type;
+        mEventDisplayIds[mEventCount] = displayId;
+        mEventCount++;
+    }
+
+    /** Tell subscribers about the queued events without holding the lock. */
+    private void dispatchEvents() {
+        // events are only queued on this thread, so they can be read without the lock
+        for (int i = 0; i < mEventCount; i++) {
+            final Subscriber[] subscribers;
+            synchronized (this) {
+                subscribers = mSubscribers;
+            }
+            final int displayId = mEventDisplayIds[i];
+            for (Subscriber s : subscribers) {
+                switch (mEventTypes[i]) {
+                    case EVENT_ADDED:
+                        s.onPresentationDisplayAdded(displayId);
+                        break;
+                    case EVENT_REMOVED:
+                        s.onPresentationDisplayRemoved(displayId);
+                        break;
+                    default:
+                        s.onPresentationDisplayChanged(displayId);
+                        break;
+                }
+            }
+        }
+        mEventCount = 0;
+    }
+
+    /** @return a stamp that changes whenever the set of presentation displays changes. */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    public synchronized int getPresentationDisplayCount() {
+        return mPresentationDisplays.size();
+    }
+
+    public synchronized boolean hasPresentationDisplay() {
+        return !mPresentationDisplays.isEmpty();
+    }
+
+    /** @return the cached snapshot of a presentation display, or null if it isn't one. */
+    public synchronized DisplaySnapshot getSnapshot(int displayId) {
+        return mSnapshots.get(displayId);
+    }
+
+    /**
+     * @return the presentation displays in ascending id order. The array is shared until the
+     *     displays change again and must not be modified.
+     */
+    public synchronized DisplaySnapshot[] getPresentationDisplaySnapshots() {
+        if (mSnapshotArray == null) {
+            final int n = mSnapshots.size();
+            final DisplaySnapshot[] snapshots = new DisplaySnapshot[n];
+            for (int i = 0; i < n; i++) {
+                snapshots[i] = mSnapshots.valueAt(i);
+            }
+            mSnapshotArray = snapshots;
+        }
+        return mSnapshotArray;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size history of a single metric at three resolutions.
+ *
+ * <p>Every sample is averaged into the current 1s, 10s and 60s bucket of its tier. When a bucket is
+ * complete its average goes into that tier's ring of {@link #SLOTS} floats, so the tiers cover the
+ * last minute, ten minutes and hour respectively. Buckets without samples are stored as NaN.
+ * Memory use is fixed at construction, no matter how long the desktop runs.
+ *
+ * <p>The history is thread-safe: samples are usually recorded on the background thread and read
+ * on the main thread.
+ */
+public final class MetricHistory {
+    public static final int TIER_1S = 0;
+    public static final int TIER_10S = 1;
+    public static final int TIER_60S = 2;
+
+    /** Buckets kept per tier. */
+    public static final int SLOTS = 60;
+
+    private static final long[] RESOLUTION_MS = {1000, 10 * 1000, 60 * 1000};
+    private static final int TIERS = RESOLUTION_MS.length;
+
+    private final float[][] mRings = new float[TIERS][SLOTS];
+    /** Next slot to write in each ring. */
+    private final int[] mHeads = new int[TIERS];
+    /** Number of the bucket being accumulated, i.e. time / resolution, or -1 before any sample. */
+    private final long[] mBuckets = new long[TIERS];
+    private final double[] mSums = new double[TIERS];
+    private final int[] mSamples = new int[TIERS];
+
+    public MetricHistory() {
+        for (float[] ring : mRings) {
+            Arrays.fill(ring, Float.NaN);
+        }
+        Arrays.fill(mBuckets, -1);
+    }
+
+    /** @param timeMs monotonic time of the sample, e.g. {@code SystemClock.elapsedRealtime()} */
+    public synchronized void record(long timeMs, float value) {
+        for (int tier = 0; tier < TIERS; tier++) {
+            advanceLocked(tier, timeMs);
+            mSums[tier] += value;
+            mSamples[tier]++;
+        }
+    }
+
+    /**
+     * Copy a tier into {@code out}, oldest first. The last element is the bucket containing {@code
+     * timeMs}, averaged over what it has seen so far, so the newest point is always live.
+     *
+     * @param out at least {@link #SLOTS} long
+     */
+    public synchronized void read(int tier, long timeMs, float[] out) {
+        advanceLocked(tier, timeMs);
+        final float[] ring = mRings[tier];
+        final int head = mHeads[tier];
+        // skip the oldest completed bucket at head to leave room for the current one
+        for (int i = 0; i < SLOTS - 1; i++) {
+            out[i] = ring[(head + 1 + i) % SLOTS];
+        }
+        out[SLOTS - 1] = mSamples[tier] > 0 ? (float) (mSums[tier] / mSamples[tier]) : Float.NaN;
+    }
+
+    /** Move {@code tier} forward to the bucket containing {@code timeMs}. */
+    private void advanceLocked(int tier, long timeMs) {
+        final long bucket = timeMs / RESOLUTION_MS[tier];
+        final long current = mBuckets[tier];
+        if (current < 0) {
+            mBuckets[tier] = bucket;
+            return;
+        }
+        if (bucket <= current) {
+            return;
+        }
+        pushLocked(tier, mSamples[tier] > 0 ? (float) (mSums[tier] / mSamples[tier]) : Float.NaN);
+        mSums[tier] = 0;
+        mSamples[tier] = 0;
+        // anything skipped had no samples, no point in writing more gaps than the ring holds
+        final long gaps = Math.min(bucket - current - 1, SLOTS);
+        for (long i = 0; i < gaps; i++) {
+            pushLocked(tier, Float.NaN);
+        }
+        mBuckets[tier] = bucket;
+    }
+
+    private void pushLocked(int tier, float value) {
+        mRings[tier][mHeads[tier]] = value;
+        mHeads[tier] = (mHeads[tier] + 1) % SLOTS;
+    }
+}
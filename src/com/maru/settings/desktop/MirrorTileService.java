@@ -16,80 +16,106 @@
  */
 package com.maru.settings.desktop;
 
+import android.content.ComponentName;
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.drawable.Icon;
-import android.hardware.display.DisplayManager;
 import android.os.Build;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
-import android.view.Display;
 
 import androidx.annotation.RequiresApi;
 
 import com.maru.settings.R;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
+/**
+ * Quick Settings tile for phone mirroring.
+ *
+ * <p>This is an active tile: the system does not bind and listen every time the QS panel opens.
+ * Instead we ask for an update with {@link #requestUpdate(Context)} whenever mirroring or the
+ * connected presentation displays change. The tile is only bound while it is listening, so those
+ * are watched for the whole process by a {@link MirrorTileWatcher}, see {@link
+ * #startWatching(Context)}.
+ */
 @RequiresApi(api = Build.VERSION_CODES.N)
 public class MirrorTileService extends TileService {
     private static final String TAG = "MirrorTileService";
 
-    private DisplayManager mDisplayManager;
+    private MirroringController mMirroringController;
 
-    private MDisplayListener mDisplayListener;
-    private Set<Integer> mPresentationDisplays;
+    private MirrorTileWatcher mWatcher;
     private boolean mListening = false;
 
+    private static MirrorTileWatcher sWatcher;
+
+    // everything the tile can show, resolved once
+    private Icon mIconEnabled;
+    private Icon mIconDisabled;
+    private CharSequence mDescriptionEnabled;
+    private CharSequence mDescriptionDisabled;
+
+    private static final int PUSHED_NONE = -1;
+    private int mPushedState = PUSHED_NONE;
+    private boolean mRefreshPending = false;
+    private final Runnable mRefreshRunnable = this::refreshStateInternal;
+
+    private long mTileUpdates = 0;
+    private long mTileUpdatesSuppressed = 0;
+
     @Override
     public void onCreate() {
         super.onCreate();
-        mDisplayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
-        mDisplayListener = new MDisplayListener();
-        mPresentationDisplays = new HashSet<>();
+        mMirroringController = MirroringController.Factory.get(this);
+        mWatcher = getWatcher(this);
+
+        mIconEnabled = Icon.createWithResource(this, R.drawable.ic_mirroring_enabled);
+        mIconDisabled = Icon.createWithResource(this, R.drawable.ic_mirroring_disabled);
+        mDescriptionEnabled = getString(R.string.accessibility_qs_mirroring_changed_on);
+        mDescriptionDisabled = getString(R.string.accessibility_qs_mirroring_changed_off);
     }
 
     @Override
     public void onStartListening() {
         super.onStartListening();
-        // Register listener when start listening, and it will be called after Tile added.
+        // Only called after requestUpdate() or when the tile is added since this is an active tile.
         mListening = true;
-        mDisplayListener.sync();
-        mDisplayManager.registerDisplayListener(mDisplayListener, null);
         refreshState();
     }
 
     @Override
     public void onStopListening() {
-        // Unregister listener when stop listening.
         mListening = false;
-        mDisplayManager.unregisterDisplayListener(mDisplayListener);
         super.onStopListening();
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        mDisplayManager = null;
-        mDisplayListener = null;
-        if (mPresentationDisplays != null) {
-            mPresentationDisplays.clear();
-        }
-        mPresentationDisplays = null;
+        getMainThreadHandler().removeCallbacks(mRefreshRunnable);
+        mRefreshPending = false;
+        mMirroringController = null;
     }
 
     @Override
     public void onClick() {
         super.onClick();
-        if (mListening) {
-            if (mDisplayManager.isPhoneMirroringEnabled()) {
-                mDisplayManager.disablePhoneMirroring();
-            } else {
-                mDisplayManager.enablePhoneMirroring();
-            }
-            refreshState();
+        final boolean mirroring = !mWatcher.isMirroringEnabled(mMirroringController);
+        if (mirroring) {
+            mMirroringController.enablePhoneMirroring();
+        } else {
+            mMirroringController.disablePhoneMirroring();
         }
+        // we know the new state so keep the cache valid
+        mWatcher.setMirroringEnabled(mirroring);
+        // clicks are delivered without onStartListening() for active tiles
+        refreshState();
+    }
+
+    /** Ask the system to let the tile refresh itself. */
+    public static void requestUpdate(Context context) {
+        requestListeningState(context, new ComponentName(context, MirrorTileService.class));
     }
 
     private void updateMirrorStateInternal(boolean isMirroring) {
@@ -97,77 +123,76 @@ public class MirrorTileService extends TileService {
         if (tile == null) {
             return;
         }
-        Resources resources = getResources();
-        int iconId =
-                isMirroring ? R.drawable.ic_mirroring_enabled : R.drawable.ic_mirroring_disabled;
-        tile.setIcon(Icon.createWithResource(resources, iconId));
-        int descriptionId =
-                isMirroring
-                        ? R.string.accessibility_qs_mirroring_changed_on
-                        : R.string.accessibility_qs_mirroring_changed_off;
-        tile.setContentDescription(resources.getString(descriptionId));
-        tile.setState(isMirroring ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+        final int state = isMirroring ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE;
+        if (state == mPushedState) {
+            // updateTile() is an IPC to SystemUI, don't make it for nothing
+            mTileUpdatesSuppressed++;
+            return;
+        }
+        tile.setIcon(isMirroring ? mIconEnabled : mIconDisabled);
+        tile.setContentDescription(isMirroring ? mDescriptionEnabled : mDescriptionDisabled);
+        tile.setState(state);
         tile.updateTile();
+        mPushedState = state;
+        mTileUpdates++;
     }
 
-    private void refreshState() {
-        if (mListening) {
-            boolean isMirroring = mDisplayManager.isPhoneMirroringEnabled();
-            getMainThreadHandler().post(() -> updateMirrorStateInternal(isMirroring));
-        }
+    /**
+     * Ask for a tile update whenever displays or the desktop change mirroring, for as long as the
+     * process lives. Safe to call more than once and from the main thread: registering with the
+     * platform services happens on the {@link BackgroundThread}.
+     */
+    public static void startWatching(Context context) {
+        getWatcher(context);
     }
 
-    private class MDisplayListener implements DisplayManager.DisplayListener {
-        /**
-         * Keep track of public presentation displays. These are displays that will show either Maru
-         * Desktop or the mirrored phone screen.
-         */
-        @Override
-        public void onDisplayAdded(int displayId) {
-            if (mDisplayManager != null && mPresentationDisplays != null) {
-                Display display = mDisplayManager.getDisplay(displayId);
-
-                if (display.isPublicPresentation()) {
-                    if (mPresentationDisplays.isEmpty()) {
-                        // the first presentation display was added
-                        refreshState();
-                    }
-                    mPresentationDisplays.add(displayId);
-                }
-            }
+    private static synchronized MirrorTileWatcher getWatcher(Context context) {
+        if (sWatcher == null) {
+            final Context appContext = context.getApplicationContext();
+            sWatcher =
+                    new MirrorTileWatcher(
+                            MaruDisplayRegistry.getInstance(appContext),
+                            () -> requestUpdate(appContext));
+            sWatcher.start(
+                    PerspectiveEventBus.getInstance(appContext), BackgroundThread.getHandler());
         }
+        return sWatcher;
+    }
 
-        @Override
-        public void onDisplayRemoved(int displayId) {
-            if (mPresentationDisplays != null
-                    && mPresentationDisplays.remove(displayId)
-                    && mPresentationDisplays.isEmpty()) {
-                // the last presentation display was removed
-                refreshState();
-            }
+    /** Must be called on the main thread. Refreshes requested before the next one collapse. */
+    private void refreshState() {
+        if (!mRefreshPending) {
+            mRefreshPending = true;
+            getMainThreadHandler().post(mRefreshRunnable);
         }
+    }
 
-        @Override
-        public void onDisplayChanged(int displayId) {
-            /* no-op */
+    private void refreshStateInternal() {
+        mRefreshPending = false;
+        if (mMirroringController != null) {
+            updateMirrorStateInternal(mWatcher.isMirroringEnabled(mMirroringController));
         }
+    }
 
-        /**
-         * We may miss a display event since listeners are unregistered when the QS panel is hidden.
-         *
-         * <p>Call this before registering to make sure the initial state is up-to-date.
-         */
-        public void sync() {
-            if (mPresentationDisplays != null && mDisplayManager != null) {
-                mPresentationDisplays.clear();
-                Display[] displays =
-                        mDisplayManager.getDisplays(DisplayManager.DISPLAY_CATEGORY_PRESENTATION);
-                for (Display display : displays) {
-                    if (display.isPublicPresentation()) {
-                        mPresentationDisplays.add(display.getDisplayId());
-                    }
-                }
-            }
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.print("mListening=");
+        writer.print(mListening);
+        writer.print(" updateTile calls=");
+        writer.print(mTileUpdates);
+        writer.print(" suppressed=");
+        writer.println(mTileUpdatesSuppressed);
+        if (mWatcher != null) {
+            mWatcher.dump("", writer);
+        }
+        // the dashboard only dumps these while it is open, but they live as long as the process
+        final Context appContext = getApplicationContext();
+        PerspectiveEventBus.getInstance(appContext).dump("", writer);
+        DesktopTransitionStats.getInstance().dump("", writer);
+        final DesktopSuspendPolicy suspendPolicy = DesktopSuspendPolicy.getInstance();
+        if (suspendPolicy != null) {
+            suspendPolicy.dump("", writer);
         }
+        DesktopEventJournal.getInstance(appContext).dump("", writer);
     }
 }
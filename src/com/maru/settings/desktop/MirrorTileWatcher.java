@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.mperspective.Perspective;
+import android.os.Handler;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The part of {@link MirrorTileService} that lives as long as the process.
+ *
+ * <p>The tile is an active tile and is only bound after it asks for an update, so something has
+ * to watch whatever changes mirroring while it is unbound: the first presentation display being
+ * connected or the last one removed, and the desktop taking the external display over or handing
+ * it back. Either way the tile is asked to update itself.
+ *
+ * <p>The watcher also caches the mirroring state for the tile, which would otherwise be a binder
+ * call every time the tile is refreshed. The cache is dropped whenever one of the changes above
+ * happens.
+ *
+ * <p>Display and perspective callbacks are received on the handler passed to {@link
+ * #start(PerspectiveEventBus, Handler)}. Everything else can be called from any thread.
+ */
+final class MirrorTileWatcher
+        implements MaruDisplayRegistry.Subscriber, PerspectiveEventBus.Subscriber {
+
+    private final MaruDisplayRegistry mRegistry;
+    private final Runnable mRequestUpdate;
+
+    /** Bumped whenever mirroring may have changed behind the cache's back. */
+    private final AtomicInteger mMirroringEpoch = new AtomicInteger();
+
+    /*
+     * Only touched on the callback thread. Display events are dispatched after the registry has
+     * applied a whole batch of them, so compare against what we last saw instead of counting
+     * displays per event.
+     */
+    private boolean mConnected = false;
+
+    // guarded by this
+    private boolean mMirroring = false;
+    private boolean mMirroringValid = false;
+    private int mCachedEpoch;
+    private int mCachedDisplayGeneration;
+    private long mMirroringQueries = 0;
+    private long mMirroringCacheHits = 0;
+    private long mUpdatesRequested = 0;
+
+    /** @param requestUpdate asks the system to bind the tile so it can refresh itself */
+    MirrorTileWatcher(MaruDisplayRegistry registry, Runnable requestUpdate) {
+        mRegistry = registry;
+        mRequestUpdate = requestUpdate;
+    }
+
+    /** Watch the displays and the desktop, with callbacks delivered on {@code handler}. */
+    void start(PerspectiveEventBus bus, Handler handler) {
+        mRegistry.subscribe(this);
+        bus.subscribe(this, handler);
+    }
+
+    /** Drop the cached mirroring state and ask the tile to update. */
+    void notifyMirroringChanged() {
+        mMirroringEpoch.incrementAndGet();
+        synchronized (this) {
+            mUpdatesRequested++;
+        }
+        mRequestUpdate.run();
+    }
+
+    /** @return whether mirroring is enabled, only asking {@code controller} if it might differ */
+    synchronized boolean isMirroringEnabled(MirroringController controller) {
+        final int epoch = mMirroringEpoch.get();
+        final int displayGeneration = mRegistry.getGeneration();
+        if (!mMirroringValid
+                || epoch != mCachedEpoch
+                || displayGeneration != mCachedDisplayGeneration) {
+            mMirroring = controller.isPhoneMirroringEnabled();
+            mMirroringValid = true;
+            mCachedEpoch = epoch;
+            mCachedDisplayGeneration = displayGeneration;
+            mMirroringQueries++;
+        } else {
+            mMirroringCacheHits++;
+        }
+        return mMirroring;
+    }
+
+    /** The tile changed mirroring itself, so it knows the new state. */
+    synchronized void setMirroringEnabled(boolean mirroring) {
+        mMirroring = mirroring;
+    }
+
+    @Override
+    public void onPresentationDisplayAdded(int displayId) {
+        updateConnected();
+    }
+
+    @Override
+    public void onPresentationDisplayRemoved(int displayId) {
+        updateConnected();
+    }
+
+    @Override
+    public void onPresentationDisplayChanged(int displayId) {
+        /* no-op */
+    }
+
+    private void updateConnected() {
+        final boolean connected = mRegistry.hasPresentationDisplay();
+        if (connected != mConnected) {
+            // the first presentation display was added or the last one removed
+            mConnected = connected;
+            synchronized (this) {
+                mUpdatesRequested++;
+            }
+            // the display generation changed too, which drops the cache
+            mRequestUpdate.run();
+        }
+    }
+
+    @Override
+    public void onPerspectiveStateChanged(int previousState, int state, int changes) {
+        if (changes == 0) {
+            // just the current state replayed to us, nothing changed
+            return;
+        }
+        // a running desktop owns the external display, so mirroring changes when it settles
+        if (state == Perspective.STATE_RUNNING || state == Perspective.STATE_STOPPED) {
+            notifyMirroringChanged();
+        }
+    }
+
+    synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("mMirroring=");
+        writer.print(mMirroring);
+        writer.print(" mMirroringValid=");
+        writer.println(mMirroringValid);
+        writer.print(prefix);
+        writer.print("isPhoneMirroringEnabled binder calls=");
+        writer.print(mMirroringQueries);
+        writer.print(" cache hits=");
+        writer.print(mMirroringCacheHits);
+        writer.print(" tile updates requested=");
+        writer.println(mUpdatesRequested);
+    }
+}
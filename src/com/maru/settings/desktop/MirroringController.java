@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * The phone mirroring operations the settings app relies on.
+ *
+ * <p>The mirroring calls on {@link DisplayManager} only exist on Maru builds, so the mirroring tile
+ * goes through this interface instead, which can be swapped for a stand-in.
+ */
+public interface MirroringController {
+
+    boolean isPhoneMirroringEnabled();
+
+    void enablePhoneMirroring();
+
+    void disablePhoneMirroring();
+
+    final class Factory {
+        private static MirroringController sOverride;
+
+        private Factory() {}
+
+        public static MirroringController get(Context context) {
+            synchronized (Factory.class) {
+                if (sOverride != null) {
+                    return sOverride;
+                }
+            }
+            final Context appContext = context.getApplicationContext();
+            return new Platform(
+                    (DisplayManager) appContext.getSystemService(Context.DISPLAY_SERVICE));
+        }
+
+        /** Make {@link #get(Context)} return {@code controller}, or the platform one if null. */
+        @VisibleForTesting
+        public static void setOverride(MirroringController controller) {
+            synchronized (Factory.class) {
+                sOverride = controller;
+            }
+        }
+    }
+
+    /** Backed by the platform {@link DisplayManager}. */
+    final class Platform implements MirroringController {
+        private final DisplayManager mDisplayManager;
+
+        Platform(DisplayManager displayManager) {
+            mDisplayManager = displayManager;
+        }
+
+        @Override
+        public boolean isPhoneMirroringEnabled() {
+            return mDisplayManager.isPhoneMirroringEnabled();
+        }
+
+        @Override
+        public void enablePhoneMirroring() {
+            mDisplayManager.enablePhoneMirroring();
+        }
+
+        @Override
+        public void disablePhoneMirroring() {
+            mDisplayManager.disablePhoneMirroring();
+        }
+    }
+}
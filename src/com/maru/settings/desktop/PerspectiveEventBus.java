@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.mperspective.Perspective;
+import android.mperspective.PerspectiveManager;
+import android.os.Handler;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Process-wide fan-out of desktop perspective state changes.
+ *
+ * <p>{@link PerspectiveManager} only supports a single listener, so the bus takes that one
+ * registration when it is created and keeps it for the life of the process, forwarding every state
+ * change to its subscribers. It also records the changes in {@link DesktopTransitionStats} and the
+ * {@link DesktopEventJournal}, so those see every change whether or not anybody is subscribed.
+ *
+ * <p>Delivery is conflated: each subscriber has at most one delivery pending on its own handler and
+ * that delivery carries whatever state is latest when it runs, so a slow subscriber skips
+ * intermediate states instead of building up a queue. The delivery says how many changes it covers
+ * and which state came right before the latest one, so a subscriber can still tell a transition
+ * apart from a settled state. A new subscriber first gets the current state replayed, as soon as it
+ * is known, without another binder call.
+ *
+ * <p>Platform callbacks are received on the {@link BackgroundThread}. The bus itself can be used
+ * from any thread.
+ */
+public final class PerspectiveEventBus implements DesktopPerspective.Listener {
+
+    public interface Subscriber {
+        /**
+         * Called on the subscriber's handler with the latest {@code Perspective.STATE_*} or {@link
+         * DesktopPerspective#STATE_SUSPENDED}.
+         *
+         * @param previousState the state the perspective was in right before {@code state}
+         * @param changes how many changes happened since the last delivery, more than one if
+         *     deliveries were conflated, or zero if this replays the current state to a new
+         *     subscriber
+         */
+        void onPerspectiveStateChanged(int previousState, int state, int changes);
+    }
+
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    private static PerspectiveEventBus sInstance;
+
+    private final DesktopPerspective mPerspective;
+    private final DesktopEventJournal mJournal;
+    private final DesktopTransitionStats mStats;
+    private final Handler mHandler;
+
+    private Subscription[] mSubscriptions = NO_SUBSCRIPTIONS;
+    private boolean mRegistered = false;
+
+    /** Only valid while {@link #mStateKnown}. */
+    private int mState = Perspective.STATE_STOPPED;
+    private int mPreviousState = Perspective.STATE_STOPPED;
+    private boolean mStateKnown = false;
+    /** Number of state changes received from the platform. */
+    private int mChanges = 0;
+
+    private long mDeliveries = 0;
+    private long mDeliveriesConflated = 0;
+
+    public static synchronized PerspectiveEventBus getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance =
+                    new PerspectiveEventBus(
+                            DesktopPerspective.Factory.get(appContext),
+                            DesktopEventJournal.getInstance(appContext),
+                            DesktopTransitionStats.getInstance(),
+                            BackgroundThread.getHandler());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    PerspectiveEventBus(
+            DesktopPerspective perspective,
+            DesktopEventJournal journal,
+            DesktopTransitionStats stats,
+            Handler handler) {
+        mPerspective = perspective;
+        mJournal = journal;
+        mStats = stats;
+        mHandler = handler;
+        // registering is a binder call, and getInstance() may be called on the main thread
+        mHandler.post(this::sync);
+    }
+
+    /** Callbacks are delivered on {@code handler}'s thread. */
+    public synchronized void subscribe(Subscriber subscriber, Handler handler) {
+        for (Subscription s : mSubscriptions) {
+            if (s.subscriber == subscriber) {
+                return;
+            }
+        }
+        final Subscription[] subscriptions =
+                Arrays.copyOf(mSubscriptions, mSubscriptions.length + 1);
+        final Subscription subscription = new Subscription(subscriber, handler, mChanges);
+        subscriptions[mSubscriptions.length] = subscription;
+        mSubscriptions = subscriptions;
+        if (mStateKnown) {
+            subscription.scheduleLocked();
+        }
+        // otherwise sync() replays the state once it knows it
+    }
+
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        final int n = mSubscriptions.length;
+        for (int i = 0; i < n; i++) {
+            final Subscription subscription = mSubscriptions[i];
+            if (subscription.subscriber == subscriber) {
+                subscription.cancelLocked();
+                if (n == 1) {
+                    mSubscriptions = NO_SUBSCRIPTIONS;
+                } else {
+                    final Subscription[] subscriptions = new Subscription[n - 1];
+                    System.arraycopy(mSubscriptions, 0, subscriptions, 0, i);
+                    System.arraycopy(mSubscriptions, i + 1, subscriptions, i, n - i - 1);
+                    mSubscriptions = subscriptions;
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onPerspectiveStateChanged(int state) {
+        mStats.onStateChanged(state);
+        mJournal.append(DesktopEventJournal.EVENT_PERSPECTIVE_STATE, state);
+        mPreviousState = mStateKnown ? mState : state;
+        mState = state;
+        mStateKnown = true;
+        mChanges++;
+        for (Subscription s : mSubscriptions) {
+            s.scheduleLocked();
+        }
+    }
+
+    /**
+     * Register with the platform and make sure the current state is known, querying the platform
+     * if it isn't.
+     *
+     * <p>Must be called on the {@link BackgroundThread}.
+     */
+    public synchronized void sync() {
+        if (!mRegistered) {
+            mPerspective.registerPerspectiveListener(this, mHandler);
+            mRegistered = true;
+        }
+        if (!mStateKnown) {
+            final int state;
+            if (!mPerspective.isDesktopRunning()) {
+                state = Perspective.STATE_STOPPED;
+            } else if (mPerspective.isDesktopSuspended()) {
+                state = DesktopPerspective.STATE_SUSPENDED;
+            } else {
+                state = Perspective.STATE_RUNNING;
+            }
+            mStats.onStateSynced(state);
+            mState = state;
+            mPreviousState = state;
+            mStateKnown = true;
+            for (Subscription s : mSubscriptions) {
+                s.scheduleLocked();
+            }
+        }
+    }
+
+    /**
+     * @return the current {@code Perspective.STATE_*}. This only costs a binder call the first
+     *     time. Must be called on the {@link BackgroundThread}.
+     */
+    public synchronized int getState() {
+        sync();
+        return mState;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("perspective subscribers=");
+        writer.print(mSubscriptions.length);
+        writer.print(" states received=");
+        writer.print(mChanges);
+        writer.print(" deliveries=");
+        writer.print(mDeliveries);
+        writer.print(" conflated=");
+        writer.println(mDeliveriesConflated);
+    }
+
+    private final class Subscription implements Runnable {
+        final Subscriber subscriber;
+        final Handler handler;
+
+        // guarded by the bus
+        private boolean mActive = true;
+        private boolean mPending = false;
+        private int mDeliveredChanges;
+        private boolean mReplayPending = true;
+
+        Subscription(Subscriber subscriber, Handler handler, int changes) {
+            this.subscriber = subscriber;
+            this.handler = handler;
+            mDeliveredChanges = changes;
+        }
+
+        void scheduleLocked() {
+            if (mPending) {
+                // the pending delivery will pick up the new state
+                mDeliveriesConflated++;
+                return;
+            }
+            mPending = true;
+            handler.post(this);
+        }
+
+        void cancelLocked() {
+            mActive = false;
+            if (mPending) {
+                handler.removeCallbacks(this);
+                mPending = false;
+            }
+        }
+
+        @Override
+        public void run() {
+            final int previousState;
+            final int state;
+            final int changes;
+            synchronized (PerspectiveEventBus.this) {
+                mPending = false;
+                changes = mChanges - mDeliveredChanges;
+                if (!mActive || !mStateKnown || (changes == 0 && !mReplayPending)) {
+                    return;
+                }
+                mReplayPending = false;
+                mDeliveredChanges = mChanges;
+                previousState = mPreviousState;
+                state = mState;
+                mDeliveries++;
+            }
+            // call out without holding the lock so subscribers can (un)subscribe
+            subscriber.onPerspectiveStateChanged(previousState, state, changes);
+        }
+    }
+}
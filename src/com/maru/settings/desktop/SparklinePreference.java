@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceViewHolder;
+
+import com.maru.settings.R;
+
+/**
+ * A non-selectable preference showing a {@link MetricHistory} as a sparkline under its title.
+ *
+ * <p>New samples only need the line redrawn, so {@link #refresh()} invalidates the bound view
+ * instead of going through {@link #notifyChanged()} and rebinding the whole list.
+ */
+public class SparklinePreference extends Preference {
+    private final MetricHistory mHistory;
+    private final int mTier;
+    private SparklineView mView;
+
+    public SparklinePreference(Context context, MetricHistory history, int tier) {
+        super(context);
+        mHistory = history;
+        mTier = tier;
+        setLayoutResource(R.layout.preference_sparkline);
+        setSelectable(false);
+        setPersistent(false);
+    }
+
+    @Override
+    public void onBindViewHolder(PreferenceViewHolder holder) {
+        super.onBindViewHolder(holder);
+        mView = (SparklineView) holder.findViewById(R.id.sparkline);
+        mView.setHistory(mHistory, mTier);
+        mView.invalidate();
+    }
+
+    /** Redraw the sparkline with the latest history, if it is on screen. */
+    public void refresh() {
+        if (mView != null) {
+            mView.invalidate();
+        }
+    }
+}
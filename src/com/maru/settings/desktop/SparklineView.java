@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.maru.settings.R;
+
+/**
+ * Draws one tier of a {@link MetricHistory} as a line, scaled from zero to the largest value shown.
+ * Gaps in the history break the line. Drawing reuses the same buffer and path, so it never
+ * allocates.
+ */
+public class SparklineView extends View {
+    private final float[] mValues = new float[MetricHistory.SLOTS];
+    private final Path mPath = new Path();
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private MetricHistory mHistory;
+    private int mTier;
+
+    public SparklineView(Context context) {
+        this(context, null);
+    }
+
+    public SparklineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(getResources().getDimension(R.dimen.sparkline_stroke_width));
+        mPaint.setColor(context.getColor(R.color.sparkline_color));
+    }
+
+    public void setHistory(MetricHistory history, int tier) {
+        if (history != mHistory || tier != mTier) {
+            mHistory = history;
+            mTier = tier;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mHistory == null) {
+            return;
+        }
+        mHistory.read(mTier, SystemClock.elapsedRealtime(), mValues);
+
+        float max = 0;
+        for (float value : mValues) {
+            if (value > max) {
+                max = value;
+            }
+        }
+        if (max <= 0) {
+            // nothing recorded, or nothing but zeros: a flat line says as much as nothing
+            max = 1;
+        }
+
+        final float left = getPaddingLeft();
+        final float top = getPaddingTop();
+        final float width = getWidth() - left - getPaddingRight();
+        final float height = getHeight() - top - getPaddingBottom();
+        final float step = width / (MetricHistory.SLOTS - 1);
+
+        mPath.reset();
+        boolean drawing = false;
+        for (int i = 0; i < mValues.length; i++) {
+            final float value = mValues[i];
+            if (Float.isNaN(value)) {
+                drawing = false;
+                continue;
+            }
+            final float x = left + i * step;
+            final float y = top + height - (value / max) * height;
+            if (drawing) {
+                mPath.lineTo(x, y);
+            } else {
+                mPath.moveTo(x, y);
+                // a lone point still needs a visible mark
+                mPath.lineTo(x + 1, y);
+                drawing = true;
+            }
+        }
+        canvas.drawPath(mPath, mPaint);
+    }
+}
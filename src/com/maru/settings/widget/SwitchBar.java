@@ -5,6 +5,7 @@ import android.content.res.TypedArray;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.SpannableStringBuilder;
+import android.text.SpannedString;
 import android.text.TextUtils;
 import android.text.style.TextAppearanceSpan;
 import android.util.AttributeSet;
@@ -18,9 +19,11 @@ import android.widget.LinearLayout;
 import android.widget.Switch;
 import android.widget.TextView;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.maru.settings.R;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class SwitchBar extends LinearLayout
         implements CompoundButton.OnCheckedChangeListener, View.OnClickListener {
@@ -39,10 +42,23 @@ public class SwitchBar extends LinearLayout
 
     private ToggleSwitch mSwitch;
     private TextView mTextView;
-    private String mLabel;
+    private final String mOnLabel;
+    private final String mOffLabel;
+    private boolean mLabelChecked;
     private String mSummary;
 
-    private final ArrayList<OnSwitchChangeListener> mSwitchChangeListeners = new ArrayList<>();
+    // composed label + summary for both switch states, reset whenever the summary changes
+    private CharSequence mCheckedText;
+    private CharSequence mUncheckedText;
+    private CharSequence mDisplayedText;
+
+    private static final OnSwitchChangeListener[] NO_LISTENERS = new OnSwitchChangeListener[0];
+
+    /*
+     * Copy-on-write so that dispatch needs no allocation and listeners can add or remove
+     * listeners, including themselves, from a callback.
+     */
+    private OnSwitchChangeListener[] mSwitchChangeListeners = NO_LISTENERS;
 
     private static final int[] XML_ATTRIBUTES = {
         R.attr.switchBarMarginStart, R.attr.switchBarMarginEnd, R.attr.switchBarBackgroundColor
@@ -73,7 +89,8 @@ public class SwitchBar extends LinearLayout
 
         mTextView = findViewById(R.id.switch_text);
         mTextView.setImportantForAccessibility(IMPORTANT_FOR_ACCESSIBILITY_NO);
-        mLabel = getResources().getString(R.string.switch_off_text);
+        mOnLabel = getResources().getString(R.string.switch_on_text);
+        mOffLabel = getResources().getString(R.string.switch_off_text);
         mSummarySpan = new TextAppearanceSpan(mContext, R.style.TextAppearance_Small_SwitchBar);
         updateText();
         ViewGroup.MarginLayoutParams lp = (MarginLayoutParams) mTextView.getLayoutParams();
@@ -97,27 +114,52 @@ public class SwitchBar extends LinearLayout
     }
 
     public void setTextViewLabel(boolean isChecked) {
-        mLabel =
-                getResources()
-                        .getString(isChecked ? R.string.switch_on_text : R.string.switch_off_text);
+        mLabelChecked = isChecked;
         updateText();
     }
 
     public void setSummary(String summary) {
+        if (TextUtils.equals(mSummary, summary)) {
+            return;
+        }
         mSummary = summary;
+        mCheckedText = null;
+        mUncheckedText = null;
         updateText();
     }
 
     private void updateText() {
+        CharSequence text = mLabelChecked ? mCheckedText : mUncheckedText;
+        if (text == null) {
+            text = composeText(mLabelChecked ? mOnLabel : mOffLabel);
+            if (mLabelChecked) {
+                mCheckedText = text;
+            } else {
+                mUncheckedText = text;
+            }
+        }
+        // avoid relayouts when nothing changed, e.g. while the dashboard re-renders its state
+        if (text != mDisplayedText) {
+            mDisplayedText = text;
+            mTextView.setText(text);
+        }
+    }
+
+    private CharSequence composeText(String label) {
         if (TextUtils.isEmpty(mSummary)) {
-            mTextView.setText(mLabel);
-            return;
+            return label;
         }
-        final SpannableStringBuilder ssb = new SpannableStringBuilder(mLabel).append('\n');
+        final SpannableStringBuilder ssb = new SpannableStringBuilder(label).append('\n');
         final int start = ssb.length();
         ssb.append(mSummary);
         ssb.setSpan(mSummarySpan, start, ssb.length(), 0);
-        mTextView.setText(ssb);
+        // TextView copies any mutable Spanned it is given, so hand it an immutable one
+        return new SpannedString(ssb);
+    }
+
+    @VisibleForTesting
+    CharSequence getDisplayedText() {
+        return mDisplayedText;
     }
 
     public void setChecked(boolean checked) {
@@ -169,7 +211,8 @@ public class SwitchBar extends LinearLayout
     }
 
     public void propagateChecked(boolean isChecked) {
-        for (OnSwitchChangeListener switchChangeListener : mSwitchChangeListeners) {
+        final OnSwitchChangeListener[] listeners = mSwitchChangeListeners;
+        for (OnSwitchChangeListener switchChangeListener : listeners) {
             switchChangeListener.onSwitchChanged(mSwitch, isChecked);
         }
     }
@@ -180,17 +223,36 @@ public class SwitchBar extends LinearLayout
     }
 
     public void addOnSwitchChangeListener(OnSwitchChangeListener listener) {
-        if (mSwitchChangeListeners.contains(listener)) {
+        final OnSwitchChangeListener[] listeners = mSwitchChangeListeners;
+        if (indexOf(listeners, listener) >= 0) {
             throw new IllegalStateException("Cannot add twice the same OnSwitchChangeListener");
         }
-        mSwitchChangeListeners.add(listener);
+        final OnSwitchChangeListener[] newListeners =
+                Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        mSwitchChangeListeners = newListeners;
     }
 
     public void removeOnSwitchChangeListener(OnSwitchChangeListener listener) {
-        if (!mSwitchChangeListeners.contains(listener)) {
+        final OnSwitchChangeListener[] listeners = mSwitchChangeListeners;
+        final int index = indexOf(listeners, listener);
+        if (index < 0) {
             throw new IllegalStateException("Cannot remove OnSwitchChangeListener");
         }
-        mSwitchChangeListeners.remove(listener);
+        final OnSwitchChangeListener[] newListeners =
+                new OnSwitchChangeListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, newListeners, 0, index);
+        System.arraycopy(listeners, index + 1, newListeners, index, newListeners.length - index);
+        mSwitchChangeListeners = newListeners;
+    }
+
+    private static int indexOf(Object[] array, Object value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     static class SavedState extends BaseSavedState {
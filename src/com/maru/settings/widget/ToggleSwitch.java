@@ -4,11 +4,18 @@ import android.content.Context;
 import android.util.AttributeSet;
 import android.widget.Switch;
 
+import java.util.Arrays;
+
 public class ToggleSwitch extends Switch {
 
-    private OnBeforeCheckedChangeListener mOnBeforeListener;
+    private static final OnBeforeCheckedChangeListener[] NO_LISTENERS =
+            new OnBeforeCheckedChangeListener[0];
+
+    // copy-on-write so listeners can be added or removed while a change is being vetted
+    private OnBeforeCheckedChangeListener[] mOnBeforeListeners = NO_LISTENERS;
 
     public interface OnBeforeCheckedChangeListener {
+        /** @return true to veto the change. */
         boolean onBeforeCheckedChanged(ToggleSwitch toggleSwitch, boolean checked);
     }
 
@@ -28,15 +35,48 @@ public class ToggleSwitch extends Switch {
         super(context, attrs, defStyleAttr, defStyleRes);
     }
 
-    public void setOnBeforeCheckedChangeListener(
+    public void addOnBeforeCheckedChangeListener(
             ToggleSwitch.OnBeforeCheckedChangeListener listener) {
-        mOnBeforeListener = listener;
+        final OnBeforeCheckedChangeListener[] listeners = mOnBeforeListeners;
+        for (OnBeforeCheckedChangeListener l : listeners) {
+            if (l == listener) {
+                // same contract as SwitchBar's listeners
+                throw new IllegalStateException(
+                        "Cannot add twice the same OnBeforeCheckedChangeListener");
+            }
+        }
+        final OnBeforeCheckedChangeListener[] newListeners =
+                Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = listener;
+        mOnBeforeListeners = newListeners;
+    }
+
+    public void removeOnBeforeCheckedChangeListener(
+            ToggleSwitch.OnBeforeCheckedChangeListener listener) {
+        final OnBeforeCheckedChangeListener[] listeners = mOnBeforeListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                final OnBeforeCheckedChangeListener[] newListeners =
+                        new OnBeforeCheckedChangeListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+                mOnBeforeListeners = newListeners;
+                return;
+            }
+        }
+        throw new IllegalStateException("Cannot remove OnBeforeCheckedChangeListener");
     }
 
     @Override
     public void setChecked(boolean checked) {
-        if (mOnBeforeListener != null && mOnBeforeListener.onBeforeCheckedChanged(this, checked)) {
-            return;
+        // mOnBeforeListeners is null while the super constructor runs
+        final OnBeforeCheckedChangeListener[] listeners = mOnBeforeListeners;
+        if (listeners != null) {
+            for (OnBeforeCheckedChangeListener listener : listeners) {
+                if (listener.onBeforeCheckedChanged(this, checked)) {
+                    return;
+                }
+            }
         }
         super.setChecked(checked);
     }
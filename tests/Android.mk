@@ -0,0 +1,25 @@
+LOCAL_PATH:= $(call my-dir)
+
+# Build the MaruSettings instrumentation tests
+include $(CLEAR_VARS)
+
+LOCAL_PACKAGE_NAME := MaruSettingsTests
+LOCAL_CERTIFICATE := platform
+LOCAL_MODULE_TAGS := tests
+LOCAL_PRIVATE_PLATFORM_APIS := true
+
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_JAVA_LIBRARIES := \
+    android.test.runner \
+    android.test.base \
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    androidx.test.rules \
+    junit \
+
+LOCAL_INSTRUMENTATION_FOR := MaruSettings
+
+include $(BUILD_PACKAGE)
+
+include $(call all-makefiles-under,$(LOCAL_PATH))
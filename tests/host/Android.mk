@@ -0,0 +1,35 @@
+LOCAL_PATH:= $(call my-dir)
+
+# Host-side tests for the platform independent parts of MaruSettings
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := MaruSettingsHostTests
+LOCAL_MODULE_TAGS := tests
+
+# the android.* classes these need are replaced by stand-ins under src/
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    ../../src/com/maru/settings/desktop/BackgroundThread.java \
+    ../../src/com/maru/settings/desktop/DesktopDashboardState.java \
+    ../../src/com/maru/settings/desktop/DesktopEventJournal.java \
+    ../../src/com/maru/settings/desktop/DesktopFreezer.java \
+    ../../src/com/maru/settings/desktop/DesktopMetrics.java \
+    ../../src/com/maru/settings/desktop/DesktopPerspective.java \
+    ../../src/com/maru/settings/desktop/DesktopResourceSampler.java \
+    ../../src/com/maru/settings/desktop/DesktopStateEngine.java \
+    ../../src/com/maru/settings/desktop/DesktopStateHandoff.java \
+    ../../src/com/maru/settings/desktop/DesktopSuspendPolicy.java \
+    ../../src/com/maru/settings/desktop/DesktopTransitionStats.java \
+    ../../src/com/maru/settings/desktop/DisplaySnapshot.java \
+    ../../src/com/maru/settings/desktop/IntSet.java \
+    ../../src/com/maru/settings/desktop/LatencyHistogram.java \
+    ../../src/com/maru/settings/desktop/MaruDisplayListener.java \
+    ../../src/com/maru/settings/desktop/MaruDisplayRegistry.java \
+    ../../src/com/maru/settings/desktop/MetricHistory.java \
+    ../../src/com/maru/settings/desktop/MirrorTileWatcher.java \
+    ../../src/com/maru/settings/desktop/MirroringController.java \
+    ../../src/com/maru/settings/desktop/PerspectiveEventBus.java \
+
+LOCAL_STATIC_JAVA_LIBRARIES := junit
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import java.io.File;
+
+/** Host stand-in, only what the desktop code asks a context for. */
+public abstract class Context {
+    public static final String DISPLAY_SERVICE = "display";
+    public static final String PERSPECTIVE_SERVICE = "perspective";
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public Context createDeviceProtectedStorageContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        throw new UnsupportedOperationException("no storage on the host");
+    }
+
+    public abstract Object getSystemService(String name);
+}
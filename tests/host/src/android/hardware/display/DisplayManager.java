@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.hardware.display;
+
+import android.os.Handler;
+import android.view.Display;
+
+import java.util.ArrayList;
+
+/**
+ * Host stand-in for the display service, including the Maru mirroring calls.
+ *
+ * <p>Displays are added, changed and removed by the test, and the registered listener hears about
+ * it on its handler like it would from the platform. Mirroring is a setting and survives
+ * hotplugs.
+ */
+public class DisplayManager {
+    public static final String DISPLAY_CATEGORY_PRESENTATION =
+            "android.hardware.display.category.PRESENTATION";
+
+    public interface DisplayListener {
+        void onDisplayAdded(int displayId);
+
+        void onDisplayRemoved(int displayId);
+
+        void onDisplayChanged(int displayId);
+    }
+
+    // guarded by this
+    private final ArrayList<Display> mDisplays = new ArrayList<>();
+    private DisplayListener mListener;
+    private Handler mHandler;
+    private boolean mPhoneMirroringEnabled = false;
+
+    public synchronized Display getDisplay(int displayId) {
+        final int i = indexOf(displayId);
+        return i >= 0 ? mDisplays.get(i) : null;
+    }
+
+    public synchronized Display[] getDisplays(String category) {
+        return mDisplays.toArray(new Display[0]);
+    }
+
+    public synchronized void registerDisplayListener(DisplayListener listener, Handler handler) {
+        mListener = listener;
+        mHandler = handler;
+    }
+
+    public synchronized void unregisterDisplayListener(DisplayListener listener) {
+        if (mListener == listener) {
+            mListener = null;
+            mHandler = null;
+        }
+    }
+
+    public synchronized boolean isPhoneMirroringEnabled() {
+        return mPhoneMirroringEnabled;
+    }
+
+    public synchronized void enablePhoneMirroring() {
+        mPhoneMirroringEnabled = true;
+    }
+
+    public synchronized void disablePhoneMirroring() {
+        mPhoneMirroringEnabled = false;
+    }
+
+    /** Connect {@code display}, or replace the one with the same id and report a change. */
+    public void putDisplay(Display display) {
+        final boolean added;
+        synchronized (this) {
+            final int i = indexOf(display.getDisplayId());
+            added = i < 0;
+            if (added) {
+                mDisplays.add(display);
+            } else {
+                mDisplays.set(i, display);
+            }
+        }
+        final int displayId = display.getDisplayId();
+        if (added) {
+            dispatch(listener -> listener.onDisplayAdded(displayId));
+        } else {
+            dispatch(listener -> listener.onDisplayChanged(displayId));
+        }
+    }
+
+    /** Disconnect the display with {@code displayId}, if there is one. */
+    public void removeDisplay(int displayId) {
+        synchronized (this) {
+            final int i = indexOf(displayId);
+            if (i < 0) {
+                return;
+            }
+            mDisplays.remove(i);
+        }
+        dispatch(listener -> listener.onDisplayRemoved(displayId));
+    }
+
+    private interface Event {
+        void deliver(DisplayListener listener);
+    }
+
+    private void dispatch(Event event) {
+        final DisplayListener listener;
+        final Handler handler;
+        synchronized (this) {
+            listener = mListener;
+            handler = mHandler;
+        }
+        if (listener != null) {
+            handler.post(() -> event.deliver(listener));
+        }
+    }
+
+    /** @return true if a display that can be mirrored to is connected. */
+    public synchronized boolean hasPublicPresentationDisplay() {
+        for (Display display : mDisplays) {
+            if (display.isPublicPresentation()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(int displayId) {
+        for (int i = 0; i < mDisplays.size(); i++) {
+            if (mDisplays.get(i).getDisplayId() == displayId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.mperspective;
+
+import android.os.Handler;
+
+/** Host stand-in for the platform service. Tests subclass it to script the desktop. */
+public class PerspectiveManager {
+    public interface PerspectiveListener {
+        void onPerspectiveStateChanged(int state);
+    }
+
+    public boolean isDesktopRunning() {
+        return false;
+    }
+
+    public void startDesktopPerspective() {}
+
+    public void stopDesktopPerspective() {}
+
+    public void registerPerspectiveListener(PerspectiveListener listener, Handler handler) {}
+
+    public void unregisterPerspectiveListener() {}
+}
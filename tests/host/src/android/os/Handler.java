@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/** Host stand-in. Tests subclass it to decide when posted work runs. */
+public class Handler {
+    public Handler() {}
+
+    public Handler(Looper looper) {}
+
+    public boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return false;
+    }
+
+    public void removeCallbacks(Runnable r) {}
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/** Host stand-in, only hands out a looper. Nothing is run on the thread. */
+public class HandlerThread extends Thread {
+    private final Looper mLooper = Looper.create();
+
+    public HandlerThread(String name, int priority) {
+        super(name);
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/** Host stand-in with a clock that only moves when a test moves it. */
+public final class SystemClock {
+    private static long sElapsedRealtimeNanos;
+
+    private SystemClock() {}
+
+    public static synchronized long elapsedRealtimeNanos() {
+        return sElapsedRealtimeNanos;
+    }
+
+    public static synchronized long elapsedRealtime() {
+        return sElapsedRealtimeNanos / 1000000L;
+    }
+
+    public static synchronized void advance(long nanos) {
+        sElapsedRealtimeNanos += nanos;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.view;
+
+/** Host stand-in with the properties the registry snapshots, fixed at construction. */
+public class Display {
+    private final int mDisplayId;
+    private final String mName;
+    private final Mode mMode;
+    private final boolean mHdr;
+    private final boolean mPublicPresentation;
+
+    public Display(
+            int displayId,
+            String name,
+            int width,
+            int height,
+            float refreshRate,
+            boolean hdr,
+            boolean publicPresentation) {
+        mDisplayId = displayId;
+        mName = name;
+        mMode = new Mode(width, height, refreshRate);
+        mHdr = hdr;
+        mPublicPresentation = publicPresentation;
+    }
+
+    public int getDisplayId() {
+        return mDisplayId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public float getRefreshRate() {
+        return mMode.getRefreshRate();
+    }
+
+    public boolean isHdr() {
+        return mHdr;
+    }
+
+    public boolean isPublicPresentation() {
+        return mPublicPresentation;
+    }
+
+    public static final class Mode {
+        private final int mWidth;
+        private final int mHeight;
+        private final float mRefreshRate;
+
+        public Mode(int width, int height, float refreshRate) {
+            mWidth = width;
+            mHeight = height;
+            mRefreshRate = refreshRate;
+        }
+
+        public int getPhysicalWidth() {
+            return mWidth;
+        }
+
+        public int getPhysicalHeight() {
+            return mHeight;
+        }
+
+        public float getRefreshRate() {
+            return mRefreshRate;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class DesktopFreezerTest {
+
+    private File mRoot;
+    private File mStateFile;
+    private DesktopFreezer mFreezer;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("cgroup").toFile();
+        final File dir =
+                new File(new File(mRoot, "freezer"), DesktopResourceSampler.CONTAINER_CGROUP);
+        assertTrue(dir.mkdirs());
+        mStateFile = new File(dir, "freezer.state");
+        write(DesktopFreezer.THAWED);
+        mFreezer = new DesktopFreezer(mRoot);
+    }
+
+    @After
+    public void tearDown() {
+        mStateFile.delete();
+        deleteTree(mRoot);
+    }
+
+    @Test
+    public void freeze_writesFrozenAndReportsIt() throws IOException {
+        assertFalse(mFreezer.isFrozen());
+
+        assertTrue(mFreezer.freeze());
+        assertEquals(DesktopFreezer.FROZEN, read());
+        assertTrue(mFreezer.isFrozen());
+    }
+
+    @Test
+    public void thaw_writesThawed() throws IOException {
+        assertTrue(mFreezer.freeze());
+
+        assertTrue(mFreezer.thaw());
+        assertEquals(DesktopFreezer.THAWED, read());
+        assertFalse(mFreezer.isFrozen());
+    }
+
+    @Test
+    public void freezing_countsAsFrozen() throws IOException {
+        write(DesktopFreezer.FREEZING + "\n");
+
+        assertTrue(mFreezer.isFrozen());
+    }
+
+    @Test
+    public void missingCgroup_cannotBeFrozen() {
+        final DesktopFreezer freezer = new DesktopFreezer(new File(mRoot, "missing"));
+
+        assertFalse(freezer.freeze());
+        assertFalse(freezer.isFrozen());
+    }
+
+    private void write(String state) throws IOException {
+        Files.write(mStateFile.toPath(), state.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(mStateFile.toPath()), StandardCharsets.US_ASCII);
+    }
+
+    private static void deleteTree(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/** Runs the sampler against a fake cgroup tree in a temporary directory. */
+public class DesktopResourceSamplerTest {
+
+    private static final long SECOND_NS = 1000000000L;
+    private static final long MB = 1024 * 1024;
+    private static final int CPUS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private File mRoot;
+    private FakeHandler mHandler;
+    private RecordingListener mListener;
+    private DesktopResourceSampler mSampler;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("cgroup").toFile();
+        mHandler = new FakeHandler();
+        mListener = new RecordingListener();
+        mSampler = new DesktopResourceSampler(mHandler, mListener, mRoot);
+    }
+
+    @After
+    public void tearDown() {
+        mSampler.stop();
+        delete(mRoot);
+    }
+
+    @Test
+    public void firstSample_reportsMemoryWithoutRates() throws IOException {
+        writeCgroup(0, 300 * MB, 100 * MB, 0);
+        mSampler.start();
+        mHandler.runPending();
+
+        assertEquals(1, mListener.samples);
+        assertEquals(-1f, mListener.cpuPercent, 0f);
+        assertEquals(300 * MB, mListener.rssBytes);
+        assertEquals(100 * MB, mListener.cacheBytes);
+        assertEquals(-1, mListener.ioBytesPerSec);
+        assertEquals(DesktopResourceSampler.MIN_INTERVAL_MS, mHandler.pendingDelayMs);
+    }
+
+    @Test
+    public void nextSample_reportsRatesSinceTheLastOne() throws IOException {
+        writeCgroup(0, 300 * MB, 100 * MB, 0);
+        mSampler.start();
+        mHandler.runPending();
+
+        // half of every CPU and 2 MB of I/O over one second
+        SystemClock.advance(SECOND_NS);
+        writeCgroup(CPUS * SECOND_NS / 2, 310 * MB, 100 * MB, 2 * MB);
+        mHandler.runPending();
+
+        assertEquals(2, mListener.samples);
+        assertEquals(50f, mListener.cpuPercent, 0.01f);
+        assertEquals(310 * MB, mListener.rssBytes);
+        assertEquals(2 * MB, mListener.ioBytesPerSec);
+    }
+
+    @Test
+    public void stableReadings_backOffUntilSomethingMoves() throws IOException {
+        writeCgroup(0, 300 * MB, 100 * MB, 0);
+        mSampler.start();
+        long expected = DesktopResourceSampler.MIN_INTERVAL_MS;
+        mHandler.runPending();
+        // the second sample is the first one with rates to compare
+        SystemClock.advance(SECOND_NS);
+        mHandler.runPending();
+        for (int i = 0; i < 5; i++) {
+            SystemClock.advance(mHandler.pendingDelayMs * 1000000L);
+            mHandler.runPending();
+            expected = Math.min(DesktopResourceSampler.MAX_INTERVAL_MS, expected * 2);
+            assertEquals(expected, mHandler.pendingDelayMs);
+        }
+        assertEquals(DesktopResourceSampler.MAX_INTERVAL_MS, mSampler.getIntervalMs());
+
+        SystemClock.advance(mHandler.pendingDelayMs * 1000000L);
+        writeCgroup(0, 500 * MB, 100 * MB, 0);
+        mHandler.runPending();
+        assertEquals(DesktopResourceSampler.MIN_INTERVAL_MS, mHandler.pendingDelayMs);
+    }
+
+    @Test
+    public void largeFiles_areReadInFull() throws IOException {
+        writeCgroup(0, 300 * MB, 100 * MB, 0);
+        // the Total line comes last, after one line per device and operation
+        final StringBuilder blkio = new StringBuilder();
+        for (int device = 0; device < 200; device++) {
+            blkio.append("8:").append(device).append(" Read 1234567\n");
+            blkio.append("8:").append(device).append(" Write 7654321\n");
+        }
+        blkio.append("Total ").append(3 * MB).append('\n');
+        write("blkio", "blkio.throttle.io_service_bytes", blkio.toString());
+        mSampler.start();
+        mHandler.runPending();
+
+        SystemClock.advance(SECOND_NS);
+        blkio.setLength(blkio.lastIndexOf("Total "));
+        blkio.append("Total ").append(5 * MB).append('\n');
+        write("blkio", "blkio.throttle.io_service_bytes", blkio.toString());
+        mHandler.runPending();
+
+        assertEquals(2 * MB, mListener.ioBytesPerSec);
+    }
+
+    @Test
+    public void memoryStat_isParsedInAnyOrder() throws IOException {
+        writeCgroup(0, 0, 0, 0);
+        write(
+                "memory",
+                "memory.stat",
+                "total_rss 1\nrss_huge 2\nrss " + 300 * MB + "\ncache " + 100 * MB + "\n");
+        mSampler.start();
+        mHandler.runPending();
+
+        assertEquals(300 * MB, mListener.rssBytes);
+        assertEquals(100 * MB, mListener.cacheBytes);
+    }
+
+    @Test
+    public void missingCgroups_reportUnavailable() {
+        mSampler.start();
+        mHandler.runPending();
+
+        assertEquals(0, mListener.samples);
+        assertTrue(mListener.unavailable);
+        assertEquals(DesktopResourceSampler.MAX_INTERVAL_MS, mHandler.pendingDelayMs);
+    }
+
+    @Test
+    public void stop_cancelsThePendingSample() throws IOException {
+        writeCgroup(0, 300 * MB, 100 * MB, 0);
+        mSampler.start();
+        mHandler.runPending();
+        mSampler.stop();
+
+        assertNull(mHandler.pending);
+        assertEquals(1, mSampler.getSampleCount());
+    }
+
+    @Test
+    public void parseNumber_skipsBlanksAndStopsAtTheFirstNonDigit() {
+        assertEquals(1234567890123L, parse("1234567890123\n"));
+        assertEquals(42, parse(" \t42 rest"));
+        assertEquals(0, parse("0"));
+        assertEquals(-1, parse("  \n"));
+        assertEquals(-1, parse("-5"));
+        assertEquals(-1, parse(""));
+        assertEquals(7, parse("7x"));
+    }
+
+    private static long parse(String s) {
+        final byte[] data = s.getBytes(StandardCharsets.US_ASCII);
+        return DesktopResourceSampler.parseNumber(data, 0, data.length);
+    }
+
+    private void writeCgroup(long cpuNs, long rss, long cache, long ioBytes) throws IOException {
+        write("cpuacct", "cpuacct.usage", cpuNs + "\n");
+        write(
+                "memory",
+                "memory.stat",
+                "cache " + cache + "\nrss " + rss + "\nrss_huge 0\nmapped_file 0\n");
+        write(
+                "blkio",
+                "blkio.throttle.io_service_bytes",
+                "8:0 Read " + ioBytes + "\n8:0 Write 0\nTotal " + ioBytes + "\n");
+    }
+
+    /** Rewrites the file in place, like the kernel does, so open handles see the new contents. */
+    private void write(String hierarchy, String name, String contents) throws IOException {
+        final File dir =
+                new File(
+                        new File(mRoot, hierarchy), DesktopResourceSampler.CONTAINER_CGROUP);
+        dir.mkdirs();
+        Files.write(new File(dir, name).toPath(), contents.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Holds the one sample the sampler keeps scheduled until the test runs it. */
+    private static final class FakeHandler extends Handler {
+        Runnable pending;
+        long pendingDelayMs;
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            pending = r;
+            pendingDelayMs = delayMillis;
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            if (pending == r) {
+                pending = null;
+            }
+        }
+
+        void runPending() {
+            final Runnable r = pending;
+            pending = null;
+            r.run();
+        }
+    }
+
+    private static final class RecordingListener implements DesktopResourceSampler.Listener {
+        int samples;
+        boolean unavailable;
+        float cpuPercent;
+        long rssBytes;
+        long cacheBytes;
+        long ioBytesPerSec;
+
+        @Override
+        public void onResourceSample(
+                float cpuPercent, long rssBytes, long cacheBytes, long ioBytesPerSec) {
+            samples++;
+            this.cpuPercent = cpuPercent;
+            this.rssBytes = rssBytes;
+            this.cacheBytes = cacheBytes;
+            this.ioBytesPerSec = ioBytesPerSec;
+        }
+
+        @Override
+        public void onResourcesUnavailable() {
+            unavailable = true;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static android.mperspective.Perspective.STATE_RUNNING;
+import static android.mperspective.Perspective.STATE_STARTING;
+import static android.mperspective.Perspective.STATE_STOPPED;
+import static android.mperspective.Perspective.STATE_STOPPING;
+import static com.maru.settings.desktop.DesktopPerspective.STATE_SUSPENDED;
+import static com.maru.settings.desktop.DesktopStateEngine.HINT_AUTOSTART;
+import static com.maru.settings.desktop.DesktopStateEngine.HINT_INTERACT;
+import static com.maru.settings.desktop.DesktopStateEngine.HINT_NONE;
+import static com.maru.settings.desktop.DesktopStateEngine.HINT_RESUME;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_CRASH;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_RUNNING;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_RUNNING_BG;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_STARTING;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_START_FAILURE;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_STOPPED;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_STOPPING;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_STOP_FAILURE;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_SUSPENDED;
+import static com.maru.settings.desktop.DesktopStateEngine.STATUS_UNCHANGED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.maru.settings.desktop.DesktopStateEngine.RenderSpec;
+
+import org.junit.Test;
+
+public class DesktopStateEngineTest {
+
+    /** Not a Perspective.STATE_*, e.g. before the dashboard has synced once. */
+    private static final int UNKNOWN = -1;
+
+    private static final int[] STATES = {
+        STATE_STOPPED, STATE_STARTING, STATE_RUNNING, STATE_STOPPING, STATE_SUSPENDED
+    };
+    private static final int[] PREV_STATES = {
+        STATE_STOPPED, STATE_STARTING, STATE_RUNNING, STATE_STOPPING, STATE_SUSPENDED, UNKNOWN
+    };
+
+    private static final boolean ON = true;
+    private static final boolean OFF = false;
+    private static final boolean ENABLED = true;
+    private static final boolean DISABLED = false;
+
+    /** prev, new, display connected -> checked, enabled, status, hint */
+    private static final Object[][] CASES = {
+        // transitions in flight lock the switch
+        {STATE_STOPPED, STATE_STARTING, false, ON, DISABLED, STATUS_STARTING, HINT_NONE},
+        {STATE_STOPPED, STATE_STARTING, true, ON, DISABLED, STATUS_STARTING, HINT_NONE},
+        {STATE_RUNNING, STATE_STOPPING, false, OFF, DISABLED, STATUS_STOPPING, HINT_NONE},
+        {STATE_RUNNING, STATE_STOPPING, true, OFF, DISABLED, STATUS_STOPPING, HINT_NONE},
+        {UNKNOWN, STATE_STARTING, false, ON, DISABLED, STATUS_STARTING, HINT_NONE},
+        {UNKNOWN, STATE_STOPPING, true, OFF, DISABLED, STATUS_STOPPING, HINT_NONE},
+
+        // a start completes
+        {STATE_STARTING, STATE_RUNNING, true, ON, ENABLED, STATUS_RUNNING, HINT_NONE},
+        {STATE_STARTING, STATE_RUNNING, false, ON, ENABLED, STATUS_RUNNING_BG, HINT_INTERACT},
+        // refreshes, e.g. a display (dis)connected
+        {STATE_RUNNING, STATE_RUNNING, true, ON, ENABLED, STATUS_RUNNING, HINT_NONE},
+        {STATE_RUNNING, STATE_RUNNING, false, ON, ENABLED, STATUS_RUNNING_BG, HINT_INTERACT},
+        {STATE_STOPPED, STATE_STOPPED, true, OFF, ENABLED, STATUS_STOPPED, HINT_NONE},
+        {STATE_STOPPED, STATE_STOPPED, false, OFF, ENABLED, STATUS_STOPPED, HINT_AUTOSTART},
+
+        // a stop completes
+        {STATE_STOPPING, STATE_STOPPED, true, OFF, ENABLED, STATUS_STOPPED, HINT_NONE},
+        {STATE_STOPPING, STATE_STOPPED, false, OFF, ENABLED, STATUS_STOPPED, HINT_AUTOSTART},
+
+        // failures
+        {STATE_STARTING, STATE_STOPPED, true, OFF, ENABLED, STATUS_START_FAILURE, HINT_NONE},
+        {STATE_STARTING, STATE_STOPPED, false, OFF, ENABLED, STATUS_START_FAILURE, HINT_NONE},
+        {STATE_STOPPING, STATE_RUNNING, true, ON, ENABLED, STATUS_STOP_FAILURE, HINT_NONE},
+        {STATE_STOPPING, STATE_RUNNING, false, ON, ENABLED, STATUS_STOP_FAILURE, HINT_NONE},
+        {STATE_RUNNING, STATE_STOPPED, true, OFF, ENABLED, STATUS_CRASH, HINT_NONE},
+        {STATE_RUNNING, STATE_STOPPED, false, OFF, ENABLED, STATUS_CRASH, HINT_NONE},
+
+        // undocked and redocked
+        {STATE_RUNNING, STATE_SUSPENDED, false, ON, ENABLED, STATUS_SUSPENDED, HINT_RESUME},
+        {STATE_SUSPENDED, STATE_SUSPENDED, false, ON, ENABLED, STATUS_SUSPENDED, HINT_RESUME},
+        {STATE_SUSPENDED, STATE_SUSPENDED, true, ON, ENABLED, STATUS_SUSPENDED, HINT_NONE},
+        {STATE_SUSPENDED, STATE_RUNNING, true, ON, ENABLED, STATUS_RUNNING, HINT_NONE},
+        {UNKNOWN, STATE_SUSPENDED, false, ON, ENABLED, STATUS_SUSPENDED, HINT_RESUME},
+        // turned off while suspended
+        {STATE_SUSPENDED, STATE_STOPPING, false, OFF, DISABLED, STATUS_STOPPING, HINT_NONE},
+        {STATE_SUSPENDED, STATE_STOPPED, false, OFF, ENABLED, STATUS_CRASH, HINT_NONE},
+
+        // nothing we can explain, keep whatever status is shown
+        {UNKNOWN, STATE_RUNNING, true, ON, ENABLED, STATUS_UNCHANGED, HINT_NONE},
+        {UNKNOWN, STATE_STOPPED, false, OFF, ENABLED, STATUS_UNCHANGED, HINT_NONE},
+        {STATE_STOPPED, STATE_RUNNING, true, ON, ENABLED, STATUS_UNCHANGED, HINT_NONE},
+        {STATE_STARTING, STATE_STOPPING, true, OFF, DISABLED, STATUS_STOPPING, HINT_NONE},
+    };
+
+    @Test
+    public void resolve_matchesExpectedSpecs() {
+        for (Object[] c : CASES) {
+            final int prev = (Integer) c[0];
+            final int state = (Integer) c[1];
+            final boolean connected = (Boolean) c[2];
+            final RenderSpec spec = DesktopStateEngine.resolve(prev, state, connected);
+            final String transition = describe(prev, state, connected);
+
+            assertNotNull(transition, spec);
+            assertEquals(transition + " checked", c[3], spec.checked);
+            assertEquals(transition + " enabled", c[4], spec.enabled);
+            assertEquals(transition + " status", c[5], spec.status);
+            assertEquals(transition + " hint", c[6], spec.hint);
+        }
+    }
+
+    /** The invariants surfaces rely on, over the whole state space. */
+    @Test
+    public void resolve_holdsInvariantsForEveryTransition() {
+        for (int prev : PREV_STATES) {
+            for (int state : STATES) {
+                for (boolean connected : new boolean[] {false, true}) {
+                    final RenderSpec spec = DesktopStateEngine.resolve(prev, state, connected);
+                    final String transition = describe(prev, state, connected);
+                    final boolean active =
+                            state == STATE_STARTING
+                                    || state == STATE_RUNNING
+                                    || state == STATE_SUSPENDED;
+                    final boolean inTransition =
+                            state == STATE_STARTING || state == STATE_STOPPING;
+
+                    assertNotNull(transition, spec);
+                    assertEquals(transition + " checked", active, spec.checked);
+                    assertEquals(transition + " enabled", !inTransition, spec.enabled);
+                    assertFalse(
+                            transition + " hint without status",
+                            spec.hint != HINT_NONE && spec.status == STATUS_UNCHANGED);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resolve_returnsNullForUnknownNewState() {
+        assertNull(DesktopStateEngine.resolve(STATE_RUNNING, UNKNOWN, true));
+    }
+
+    @Test
+    public void resolve_returnsSharedSpecs() {
+        assertSame(
+                DesktopStateEngine.resolve(STATE_STARTING, STATE_RUNNING, true),
+                DesktopStateEngine.resolve(STATE_STARTING, STATE_RUNNING, true));
+    }
+
+    private static String describe(int prev, int state, boolean connected) {
+        return DesktopPerspective.stateToString(prev)
+                + " -> "
+                + DesktopPerspective.stateToString(state)
+                + (connected ? " (connected)" : " (disconnected)");
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static android.mperspective.Perspective.STATE_RUNNING;
+import static android.mperspective.Perspective.STATE_STARTING;
+import static android.mperspective.Perspective.STATE_STOPPED;
+import static android.mperspective.Perspective.STATE_STOPPING;
+import static com.maru.settings.desktop.DesktopPerspective.STATE_SUSPENDED;
+import static com.maru.settings.desktop.DesktopStateHandoff.NONE;
+import static com.maru.settings.desktop.DesktopStateHandoff.SEQUENCE_MASK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DesktopStateHandoffTest {
+
+    private static final int[] STATES = {
+        STATE_STOPPED, STATE_STARTING, STATE_RUNNING, STATE_STOPPING, STATE_SUSPENDED
+    };
+
+    private FakeHandler mHandler;
+    private int mConsumed;
+    private DesktopStateHandoff mHandoff;
+
+    @Before
+    public void setUp() {
+        mHandler = new FakeHandler();
+        mHandoff = new DesktopStateHandoff(mHandler, () -> mConsumed++);
+    }
+
+    @Test
+    public void pack_roundTripsEveryField() {
+        for (int state : STATES) {
+            for (int prev : STATES) {
+                for (int i = 0; i < 4; i++) {
+                    final boolean connected = (i & 1) != 0;
+                    final boolean reset = (i & 2) != 0;
+                    final int sequence = 1000 + i;
+                    final int packed =
+                            DesktopStateHandoff.pack(state, prev, connected, sequence, reset);
+
+                    assertTrue(packed != NONE);
+                    assertEquals(state, DesktopStateHandoff.desktopState(packed));
+                    assertEquals(prev, DesktopStateHandoff.previousState(packed));
+                    assertEquals(connected, DesktopStateHandoff.isConnected(packed));
+                    assertEquals(reset, DesktopStateHandoff.isReset(packed));
+                    assertEquals(sequence, DesktopStateHandoff.sequence(packed));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pack_neverLooksLikeNone() {
+        // the highest sequence with every other field set must stay clear of the sign bit
+        final int packed =
+                DesktopStateHandoff.pack(STATE_SUSPENDED, STATE_SUSPENDED, true, -1, true);
+
+        assertTrue(packed >= 0);
+        assertEquals(SEQUENCE_MASK, DesktopStateHandoff.sequence(packed));
+    }
+
+    @Test
+    public void sequence_wrapsAround() {
+        final int packed =
+                DesktopStateHandoff.pack(
+                        STATE_RUNNING, STATE_STARTING, false, SEQUENCE_MASK + 1, false);
+
+        assertEquals(0, DesktopStateHandoff.sequence(packed));
+        assertEquals(STATE_RUNNING, DesktopStateHandoff.desktopState(packed));
+        assertEquals(STATE_STARTING, DesktopStateHandoff.previousState(packed));
+    }
+
+    @Test
+    public void sequenceDistance_countsForward() {
+        assertEquals(0, DesktopStateHandoff.sequenceDistance(7, 7));
+        assertEquals(1, DesktopStateHandoff.sequenceDistance(7, 8));
+        assertEquals(5, DesktopStateHandoff.sequenceDistance(0, 5));
+    }
+
+    @Test
+    public void sequenceDistance_allowsForWrapAround() {
+        assertEquals(1, DesktopStateHandoff.sequenceDistance(SEQUENCE_MASK, 0));
+        assertEquals(3, DesktopStateHandoff.sequenceDistance(SEQUENCE_MASK - 1, 1));
+        // going backwards looks like almost a full lap, never like a small step
+        assertEquals(SEQUENCE_MASK, DesktopStateHandoff.sequenceDistance(1, 0));
+    }
+
+    @Test
+    public void publish_postsOncePerBurst() {
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_STARTING, STATE_STOPPED, true, 1, false));
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_RUNNING, STATE_STARTING, true, 2, false));
+
+        assertEquals(1, mHandler.posts);
+        final int packed = mHandoff.take();
+        assertEquals(STATE_RUNNING, DesktopStateHandoff.desktopState(packed));
+        assertEquals(2, DesktopStateHandoff.sequence(packed));
+        assertEquals(NONE, mHandoff.take());
+
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_STOPPING, STATE_RUNNING, true, 3, false));
+        assertEquals(2, mHandler.posts);
+    }
+
+    @Test
+    public void publish_keepsPendingReset() {
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_RUNNING, STATE_RUNNING, true, 1, true));
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_STOPPING, STATE_RUNNING, true, 2, false));
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_STOPPED, STATE_STOPPING, false, 3, false));
+
+        final int packed = mHandoff.take();
+        assertTrue(DesktopStateHandoff.isReset(packed));
+        assertEquals(STATE_STOPPED, DesktopStateHandoff.desktopState(packed));
+        assertEquals(STATE_STOPPING, DesktopStateHandoff.previousState(packed));
+        assertFalse(DesktopStateHandoff.isConnected(packed));
+        assertEquals(3, DesktopStateHandoff.sequence(packed));
+    }
+
+    @Test
+    public void take_clearsTheResetFlagForLaterPublishes() {
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_RUNNING, STATE_RUNNING, true, 1, true));
+        mHandoff.take();
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_STOPPING, STATE_RUNNING, true, 2, false));
+
+        assertFalse(DesktopStateHandoff.isReset(mHandoff.take()));
+    }
+
+    @Test
+    public void clear_dropsPendingStateAndCallback() {
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_RUNNING, STATE_STARTING, true, 1, false));
+
+        mHandoff.clear();
+
+        assertEquals(NONE, mHandoff.take());
+        assertNull(mHandler.pending);
+        mHandoff.publish(DesktopStateHandoff.pack(STATE_STOPPING, STATE_RUNNING, true, 2, false));
+        assertEquals(2, mHandler.posts);
+        mHandler.pending.run();
+        assertEquals(1, mConsumed);
+    }
+
+    private static final class FakeHandler extends Handler {
+        Runnable pending;
+        int posts;
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            pending = r;
+            posts++;
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            if (pending == r) {
+                pending = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static android.mperspective.Perspective.STATE_RUNNING;
+import static android.mperspective.Perspective.STATE_STARTING;
+import static android.mperspective.Perspective.STATE_STOPPED;
+import static android.mperspective.Perspective.STATE_STOPPING;
+import static com.maru.settings.desktop.DesktopPerspective.STATE_SUSPENDED;
+
+import android.hardware.display.DisplayManager;
+import android.view.Display;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Headless stress harness for the desktop dashboard, the mirroring tile and the suspend policy.
+ *
+ * <p>Wires the real {@link DesktopDashboardState}, {@link MaruDisplayListener}, {@link
+ * MirrorTileWatcher}, {@link DesktopSuspendPolicy}, {@link PerspectiveEventBus} and {@link
+ * MaruDisplayRegistry} to stand-ins for the display service and the desktop ({@link
+ * SimulatedPerspective}), with every thread simulated by a {@link SimulatedScheduler}. Only the
+ * Android glue of the fragment and the tile service is reproduced here.
+ *
+ * <p>Each burst injects a few random events: hotplugs, mode changes, toggles, crashes, the
+ * dashboard being paused and resumed, and tile clicks. Renders are checked as they happen, and
+ * once everything has settled the dashboard, the tile and the desktop have to agree with the
+ * stand-ins. Every run is reproducible from its seed.
+ *
+ * <p>Usage: {@code tools/host_stress.sh [bursts] [seed]}
+ */
+public final class DesktopStressHarness {
+    static final int DEFAULT_BURSTS = 250000;
+
+    private static final int MAX_DISPLAY_ID = 3;
+    private static final int MAX_EVENTS_PER_BURST = 8;
+    private static final int MAX_EVENT_SPACING_MS = 200;
+    /** Messages due this close together may run in either order on different threads. */
+    private static final long JITTER_MS = 5;
+    private static final int MAX_REPORTED_VIOLATIONS = 10;
+
+    private static final int EVENT_HOTPLUG_ADD = 0;
+    private static final int EVENT_HOTPLUG_REMOVE = 1;
+    private static final int EVENT_MODE_CHANGE = 2;
+    private static final int EVENT_TOGGLE_ON = 3;
+    private static final int EVENT_TOGGLE_OFF = 4;
+    private static final int EVENT_CRASH = 5;
+    private static final int EVENT_PAUSE = 6;
+    private static final int EVENT_RESUME = 7;
+    private static final int EVENT_TILE_CLICK = 8;
+    private static final String[] EVENT_NAMES = {
+        "hotplug-add",
+        "hotplug-remove",
+        "mode-change",
+        "toggle-on",
+        "toggle-off",
+        "crash",
+        "pause",
+        "resume",
+        "tile-click",
+    };
+    /** Relative odds of each event, indexed like {@link #EVENT_NAMES}. */
+    private static final int[] EVENT_WEIGHTS = {4, 4, 2, 4, 3, 1, 1, 1, 2};
+
+    private final long mSeed;
+    private final Random mRandom;
+    private final SimulatedScheduler mScheduler;
+    private final SimulatedScheduler.SimulatedHandler mMain;
+    private final SimulatedScheduler.SimulatedHandler mBackground;
+    private final SimulatedScheduler.SimulatedHandler mSystem;
+
+    private final File mJournalFile;
+    private final DesktopEventJournal mJournal;
+    private final DesktopTransitionStats mStats =
+            new DesktopTransitionStats(new MetricHistory(), new MetricHistory());
+    private final DisplayManager mDisplayManager = new DisplayManager();
+    private final SimulatedPerspective mPerspective;
+    private final MaruDisplayRegistry mRegistry;
+    private final PerspectiveEventBus mBus;
+
+    // the dashboard, what the fragment does
+    private final DesktopDashboardState mDashboard;
+    private final MaruDisplayListener mDashboardDisplays;
+    private boolean mDashboardResumed = false;
+    private boolean mRenderedChecked = false;
+    private boolean mRenderedEnabled = true;
+
+    // the tile, what the tile service does
+    private final MirroringController mMirroring;
+    private final MirrorTileWatcher mTileWatcher;
+    private final Runnable mTileRefresh = this::refreshTile;
+    private boolean mTileShown = false;
+
+    private final DesktopSuspendPolicy mSuspendPolicy;
+
+    // per burst
+    private long mBurst;
+    private final int[] mBurstEvents = new int[MAX_EVENTS_PER_BURST];
+    private int mBurstEventCount;
+
+    private final Histogram mMainMessageNanos = new Histogram();
+    private final Histogram mBackgroundMessageNanos = new Histogram();
+    private final Histogram mSettleMs = new Histogram();
+    private long mEvents;
+    private long mRenders;
+    private long mViolations;
+    private final ArrayList<String> mReportedViolations = new ArrayList<>();
+
+    DesktopStressHarness(long seed) throws IOException {
+        mSeed = seed;
+        mRandom = new Random(seed);
+        mScheduler = new SimulatedScheduler(mRandom, JITTER_MS);
+        mMain = mScheduler.newHandler("main");
+        mBackground = mScheduler.newHandler("background");
+        mSystem = mScheduler.newHandler("system");
+        mScheduler.setObserver(
+                (handler, wallNanos) -> {
+                    if (handler == mMain) {
+                        mMainMessageNanos.record(wallNanos);
+                    } else if (handler == mBackground) {
+                        mBackgroundMessageNanos.record(wallNanos);
+                    }
+                });
+
+        mJournalFile = File.createTempFile("stress", ".journal");
+        mJournal = new DesktopEventJournal(mJournalFile);
+        mJournal.open();
+        mPerspective = new SimulatedPerspective(mSystem, mDisplayManager, mRandom);
+        mRegistry = new MaruDisplayRegistry(mDisplayManager, mJournal, mBackground);
+        mBus = new PerspectiveEventBus(mPerspective, mJournal, mStats, mBackground);
+
+        mDashboard = new DesktopDashboardState(mMain, this::onDashboardStateChanged);
+        mDashboardDisplays = new MaruDisplayListener(mRegistry, mBackground);
+        mDashboardDisplays.setDisplayCallback(mDashboard::onDisplayConnectionChanged);
+
+        mMirroring = new MirroringController.Platform(mDisplayManager);
+        mTileWatcher = new MirrorTileWatcher(mRegistry, () -> mMain.post(mTileRefresh));
+        mTileWatcher.start(mBus, mBackground);
+        mMain.post(mTileRefresh);
+
+        mSuspendPolicy =
+                new DesktopSuspendPolicy(
+                        mPerspective, new MaruDisplayListener(mRegistry, mBackground), mBackground);
+        mBackground.post(() -> mSuspendPolicy.start(mBus));
+
+        resumeDashboard();
+        mScheduler.runUntilIdle();
+    }
+
+    /** Run {@code bursts} bursts of random events, checking after each one. */
+    void run(long bursts) {
+        for (mBurst = 0; mBurst < bursts; mBurst++) {
+            final long start = mScheduler.nowMs();
+            mBurstEventCount = 1 + mRandom.nextInt(MAX_EVENTS_PER_BURST);
+            for (int i = 0; i < mBurstEventCount; i++) {
+                final int event = pickEvent();
+                mBurstEvents[i] = event;
+                mSystem.postDelayed(() -> inject(event), mRandom.nextInt(MAX_EVENT_SPACING_MS));
+            }
+            mEvents += mBurstEventCount;
+            mScheduler.runUntilIdle();
+            mSettleMs.record(mScheduler.nowMs() - start);
+            checkSettled();
+        }
+    }
+
+    void close() {
+        mJournalFile.delete();
+    }
+
+    long getViolations() {
+        return mViolations;
+    }
+
+    ArrayList<String> getReportedViolations() {
+        return mReportedViolations;
+    }
+
+    private int pickEvent() {
+        int total = 0;
+        for (int weight : EVENT_WEIGHTS) {
+            total += weight;
+        }
+        int pick = mRandom.nextInt(total);
+        for (int event = 0; event < EVENT_WEIGHTS.length; event++) {
+            pick -= EVENT_WEIGHTS[event];
+            if (pick < 0) {
+                return event;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /** Runs on the system thread, where the outside world lives. */
+    private void inject(int event) {
+        switch (event) {
+            case EVENT_HOTPLUG_ADD:
+                final int addedId = 1 + mRandom.nextInt(MAX_DISPLAY_ID);
+                // a display keeps its flags for life, plugging it in again is a new display
+                mDisplayManager.removeDisplay(addedId);
+                mDisplayManager.putDisplay(newDisplay(addedId));
+                break;
+            case EVENT_HOTPLUG_REMOVE:
+                mDisplayManager.removeDisplay(1 + mRandom.nextInt(MAX_DISPLAY_ID));
+                break;
+            case EVENT_MODE_CHANGE:
+                final int displayId = 1 + mRandom.nextInt(MAX_DISPLAY_ID);
+                final Display display = mDisplayManager.getDisplay(displayId);
+                if (display != null) {
+                    mDisplayManager.putDisplay(
+                            newDisplay(displayId, display.isPublicPresentation()));
+                }
+                break;
+            case EVENT_TOGGLE_ON:
+                mMain.post(() -> toggle(true));
+                break;
+            case EVENT_TOGGLE_OFF:
+                mMain.post(() -> toggle(false));
+                break;
+            case EVENT_CRASH:
+                mPerspective.crash();
+                break;
+            case EVENT_PAUSE:
+                mMain.post(this::pauseDashboard);
+                break;
+            case EVENT_RESUME:
+                mMain.post(this::resumeDashboard);
+                break;
+            case EVENT_TILE_CLICK:
+                mMain.post(this::clickTile);
+                break;
+            default:
+                throw new AssertionError(event);
+        }
+    }
+
+    private Display newDisplay(int displayId) {
+        // now and then a display that is not eligible for mirroring
+        return newDisplay(displayId, mRandom.nextInt(5) != 0);
+    }
+
+    private Display newDisplay(int displayId, boolean publicPresentation) {
+        final boolean uhd = mRandom.nextBoolean();
+        return new Display(
+                displayId,
+                "HDMI " + displayId,
+                uhd ? 3840 : 1920,
+                uhd ? 2160 : 1080,
+                mRandom.nextBoolean() ? 60f : 30f,
+                mRandom.nextBoolean(),
+                publicPresentation);
+    }
+
+    /** DesktopDashboardFragment.onResume() and initializeState(). */
+    private void resumeDashboard() {
+        if (mDashboardResumed) {
+            return;
+        }
+        mDashboardResumed = true;
+        mBackground.post(mDashboardDisplays::register);
+        mDashboard.setActive(true);
+        mBackground.post(
+                () -> {
+                    mDashboardDisplays.sync();
+                    mDashboard.setDisplayConnected(mDashboardDisplays.isMaruDisplayConnected());
+                });
+        mBackground.post(() -> mBus.subscribe(mDashboard, mBackground));
+    }
+
+    /** DesktopDashboardFragment.onPause(). */
+    private void pauseDashboard() {
+        if (!mDashboardResumed) {
+            return;
+        }
+        mDashboardResumed = false;
+        mBackground.post(mDashboardDisplays::unregister);
+        mBackground.post(() -> mBus.unsubscribe(mDashboard));
+        mDashboard.setActive(false);
+    }
+
+    /** DesktopDashboardFragment.onSwitchChanged(), without the shutdown dialog. */
+    private void toggle(boolean on) {
+        if (!mDashboardResumed) {
+            // nobody to tap the switch
+            return;
+        }
+        if (on) {
+            if (mDashboard.requestStart()) {
+                // the switch has to stay put until the desktop gets there
+                checkOptimisticState(STATE_STARTING);
+                mStats.onStartRequested();
+                mJournal.append(DesktopEventJournal.EVENT_USER_TOGGLE, 1);
+                mBackground.post(mPerspective::startDesktopPerspective);
+            }
+        } else if (mDashboard.requestStop()) {
+            checkOptimisticState(STATE_STOPPING);
+            mStats.onStopRequested();
+            mJournal.append(DesktopEventJournal.EVENT_USER_TOGGLE, 0);
+            mBackground.post(mPerspective::stopDesktopPerspective);
+        }
+    }
+
+    private void checkOptimisticState(int expected) {
+        if (mDashboard.getDesktopState() != expected) {
+            violation(
+                    "dashboard went to "
+                            + DesktopPerspective.stateToString(mDashboard.getDesktopState())
+                            + " instead of "
+                            + DesktopPerspective.stateToString(expected)
+                            + " on a toggle");
+        }
+    }
+
+    /** DesktopDashboardFragment.renderView(), checking what would be rendered. */
+    private void onDashboardStateChanged(int previousState, boolean external) {
+        mRenders++;
+        final int state = mDashboard.getDesktopState();
+        final DesktopStateEngine.RenderSpec spec =
+                DesktopStateEngine.resolve(previousState, state, mDashboard.isDisplayConnected());
+        if (spec == null) {
+            violation("nothing to render for " + describeTransition(previousState, state));
+            return;
+        }
+        mRenderedChecked = spec.checked;
+        mRenderedEnabled = spec.enabled;
+        if (spec.checked != isOn(state)) {
+            violation(
+                    "switch "
+                            + (spec.checked ? "ON" : "OFF")
+                            + " for "
+                            + describeTransition(previousState, state));
+        }
+        if (spec.enabled && (state == STATE_STARTING || state == STATE_STOPPING)) {
+            violation("switch enabled for " + describeTransition(previousState, state));
+        }
+    }
+
+    /** MirrorTileService.refreshStateInternal(). */
+    private void refreshTile() {
+        mTileShown = mTileWatcher.isMirroringEnabled(mMirroring);
+    }
+
+    /** MirrorTileService.onClick(). */
+    private void clickTile() {
+        final boolean mirroring = !mTileWatcher.isMirroringEnabled(mMirroring);
+        if (mirroring) {
+            mMirroring.enablePhoneMirroring();
+        } else {
+            mMirroring.disablePhoneMirroring();
+        }
+        mTileWatcher.setMirroringEnabled(mirroring);
+        mTileShown = mirroring;
+    }
+
+    /** Everything has run, so everyone has to agree with the stand-ins. */
+    private void checkSettled() {
+        final int state = mPerspective.getState();
+        final boolean connected = mDisplayManager.hasPublicPresentationDisplay();
+        int presentationDisplays = 0;
+        for (Display display :
+                mDisplayManager.getDisplays(DisplayManager.DISPLAY_CATEGORY_PRESENTATION)) {
+            if (display.isPublicPresentation()) {
+                presentationDisplays++;
+            }
+        }
+        if (mRegistry.getPresentationDisplayCount() != presentationDisplays) {
+            violation(
+                    "registry has "
+                            + mRegistry.getPresentationDisplayCount()
+                            + " presentation displays instead of "
+                            + presentationDisplays);
+        }
+        if (mDashboardResumed) {
+            if (mDashboard.getDesktopState() != state) {
+                violation(
+                        "dashboard shows "
+                                + DesktopPerspective.stateToString(mDashboard.getDesktopState())
+                                + " for a "
+                                + DesktopPerspective.stateToString(state)
+                                + " desktop");
+            }
+            if (mDashboard.isDisplayConnected() != connected) {
+                violation("dashboard shows display connected=" + !connected);
+            }
+            final DesktopStateEngine.RenderSpec spec =
+                    DesktopStateEngine.resolve(state, state, connected);
+            if (spec.checked != mRenderedChecked || spec.enabled != mRenderedEnabled) {
+                violation(
+                        "switch rendered checked="
+                                + mRenderedChecked
+                                + " enabled="
+                                + mRenderedEnabled
+                                + " for a settled "
+                                + DesktopPerspective.stateToString(state)
+                                + " desktop");
+            }
+        }
+        if (mTileShown != mDisplayManager.isPhoneMirroringEnabled()) {
+            violation("tile shows mirroring=" + mTileShown);
+        }
+        if (state == STATE_SUSPENDED && connected) {
+            violation("desktop still suspended with a display connected");
+        }
+    }
+
+    private static boolean isOn(int state) {
+        return state == STATE_STARTING || state == STATE_RUNNING || state == STATE_SUSPENDED;
+    }
+
+    private static String describeTransition(int previousState, int state) {
+        return DesktopPerspective.stateToString(previousState)
+                + " -> "
+                + DesktopPerspective.stateToString(state);
+    }
+
+    private void violation(String what) {
+        mViolations++;
+        if (mReportedViolations.size() < MAX_REPORTED_VIOLATIONS) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(what).append(" (seed ").append(mSeed).append(", burst ").append(mBurst);
+            sb.append(", at ").append(mScheduler.nowMs()).append(" ms, events:");
+            for (int i = 0; i < mBurstEventCount; i++) {
+                sb.append(' ').append(EVENT_NAMES[mBurstEvents[i]]);
+            }
+            sb.append(')');
+            mReportedViolations.add(sb.toString());
+        }
+    }
+
+    void report(PrintStream out, long wallNanos) {
+        final double seconds = wallNanos / 1e9;
+        out.printf("seed %d: %d bursts, %d events, %d messages, %d renders in %.2f s%n",
+                mSeed, mBurst, mEvents, mScheduler.getMessagesRun(), mRenders, seconds);
+        out.printf("throughput: %,.0f events/s, %,.0f messages/s%n",
+                mEvents / seconds, mScheduler.getMessagesRun() / seconds);
+        out.println("main thread message ns: " + mMainMessageNanos);
+        out.println("background message ns: " + mBackgroundMessageNanos);
+        out.println("virtual ms until settled per burst: " + mSettleMs);
+        out.println("desktop: " + mPerspective.describeCounters());
+        out.println("invariant violations: " + mViolations);
+        for (String violation : mReportedViolations) {
+            out.println("  " + violation);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final long bursts = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_BURSTS;
+        final long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        final DesktopStressHarness harness = new DesktopStressHarness(seed);
+        final long start = System.nanoTime();
+        try {
+            harness.run(bursts);
+        } finally {
+            harness.close();
+        }
+        harness.report(System.out, System.nanoTime() - start);
+        System.exit(harness.getViolations() == 0 ? 0 : 1);
+    }
+
+    /** Log-linear histogram, four buckets per power of two. */
+    static final class Histogram {
+        private final long[] mCounts = new long[256];
+        private long mCount;
+        private long mMax;
+
+        void record(long value) {
+            value = Math.max(0, value);
+            mCounts[bucketFor(value)]++;
+            mCount++;
+            mMax = Math.max(mMax, value);
+        }
+
+        /** @return an upper bound of the {@code percentile}th percentile */
+        long getPercentile(int percentile) {
+            final long rank = (mCount * percentile + 99) / 100;
+            long seen = 0;
+            for (int bucket = 0; bucket < mCounts.length; bucket++) {
+                seen += mCounts[bucket];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(mMax, upperBound(bucket));
+                }
+            }
+            return mMax;
+        }
+
+        private static int bucketFor(long value) {
+            if (value < 4) {
+                return (int) value;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int sub = (int) (value >>> (exponent - 2)) - 4;
+            return 4 + (exponent - 2) * 4 + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 4) {
+                return bucket;
+            }
+            final int exponent = 2 + (bucket - 4) / 4;
+            final int sub = (bucket - 4) % 4;
+            return ((4L + sub + 1) << (exponent - 2)) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return "p50="
+                    + getPercentile(50)
+                    + " p90="
+                    + getPercentile(90)
+                    + " p99="
+                    + getPercentile(99)
+                    + " max="
+                    + mMax
+                    + " n="
+                    + mCount;
+        }
+    }
+}
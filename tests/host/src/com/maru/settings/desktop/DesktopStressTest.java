@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** A short run of {@link DesktopStressHarness} so every test run covers a few interleavings. */
+public class DesktopStressTest {
+
+    private static final long[] SEEDS = {1, 2, 3};
+    private static final int BURSTS = 2000;
+
+    @Test
+    public void randomEvents_violateNoInvariants() throws Exception {
+        for (long seed : SEEDS) {
+            final DesktopStressHarness harness = new DesktopStressHarness(seed);
+            try {
+                harness.run(BURSTS);
+            } finally {
+                harness.close();
+            }
+            assertEquals(
+                    "seed " + seed + ": " + harness.getReportedViolations(),
+                    0,
+                    harness.getViolations());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static android.mperspective.Perspective.STATE_RUNNING;
+import static android.mperspective.Perspective.STATE_STARTING;
+import static android.mperspective.Perspective.STATE_STOPPED;
+import static android.mperspective.Perspective.STATE_STOPPING;
+import static com.maru.settings.desktop.DesktopPerspective.STATE_SUSPENDED;
+
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+
+import java.util.Random;
+
+/**
+ * Stand-in for the perspective service and the desktop container, driven by a seeded {@link
+ * Random}.
+ *
+ * <p>Starts and stops take a random while on the service's own handler, starts fail now and then,
+ * and a running desktop can be crashed at any time. A running desktop takes the external display
+ * over, which turns phone mirroring off like the platform does. State changes are delivered to the
+ * registered listener on its handler, one message per change like the platform.
+ */
+final class SimulatedPerspective implements DesktopPerspective {
+    private static final int MAX_TRANSITION_MS = 3000;
+    private static final int START_FAILURE_PERCENT = 10;
+
+    private final Handler mServiceHandler;
+    private final DisplayManager mDisplayManager;
+    private final Random mRandom;
+
+    private int mState = STATE_STOPPED;
+    private Listener mListener;
+    private Handler mListenerHandler;
+
+    private long mStarts;
+    private long mStops;
+    /** Requests that came in at the wrong time, e.g. a stop that raced with a crash. */
+    private long mIgnored;
+    private long mCrashes;
+    private long mSuspends;
+    private long mResumes;
+
+    SimulatedPerspective(Handler serviceHandler, DisplayManager displayManager, Random random) {
+        mServiceHandler = serviceHandler;
+        mDisplayManager = displayManager;
+        mRandom = random;
+    }
+
+    /** @return the state the desktop is really in */
+    int getState() {
+        return mState;
+    }
+
+    @Override
+    public boolean isDesktopRunning() {
+        return mState == STATE_RUNNING || mState == STATE_SUSPENDED;
+    }
+
+    @Override
+    public boolean isDesktopSuspended() {
+        return mState == STATE_SUSPENDED;
+    }
+
+    @Override
+    public void startDesktopPerspective() {
+        if (mState != STATE_STOPPED) {
+            mIgnored++;
+            return;
+        }
+        mStarts++;
+        setState(STATE_STARTING);
+        mServiceHandler.postDelayed(
+                () -> {
+                    if (mState == STATE_STARTING) {
+                        final boolean failed = mRandom.nextInt(100) < START_FAILURE_PERCENT;
+                        setState(failed ? STATE_STOPPED : STATE_RUNNING);
+                    }
+                },
+                1 + mRandom.nextInt(MAX_TRANSITION_MS));
+    }
+
+    @Override
+    public void stopDesktopPerspective() {
+        if (mState != STATE_RUNNING && mState != STATE_SUSPENDED) {
+            mIgnored++;
+            return;
+        }
+        mStops++;
+        setState(STATE_STOPPING);
+        mServiceHandler.postDelayed(
+                () -> {
+                    if (mState == STATE_STOPPING) {
+                        setState(STATE_STOPPED);
+                    }
+                },
+                1 + mRandom.nextInt(MAX_TRANSITION_MS));
+    }
+
+    @Override
+    public void suspendDesktopPerspective() {
+        if (mState == STATE_RUNNING) {
+            mSuspends++;
+            setState(STATE_SUSPENDED);
+        }
+    }
+
+    @Override
+    public void resumeDesktopPerspective() {
+        if (mState == STATE_SUSPENDED) {
+            mResumes++;
+            setState(STATE_RUNNING);
+        }
+    }
+
+    @Override
+    public void registerPerspectiveListener(Listener listener, Handler handler) {
+        mListener = listener;
+        mListenerHandler = handler;
+    }
+
+    /** The container died, if it was up. */
+    void crash() {
+        if (mState == STATE_RUNNING || mState == STATE_SUSPENDED) {
+            mCrashes++;
+            setState(STATE_STOPPED);
+        }
+    }
+
+    private void setState(int state) {
+        mState = state;
+        if (state == STATE_RUNNING) {
+            mDisplayManager.disablePhoneMirroring();
+        }
+        final Listener listener = mListener;
+        if (listener != null) {
+            mListenerHandler.post(() -> listener.onPerspectiveStateChanged(state));
+        }
+    }
+
+    String describeCounters() {
+        return "starts="
+                + mStarts
+                + " stops="
+                + mStops
+                + " ignored="
+                + mIgnored
+                + " crashes="
+                + mCrashes
+                + " suspends="
+                + mSuspends
+                + " resumes="
+                + mResumes;
+    }
+}
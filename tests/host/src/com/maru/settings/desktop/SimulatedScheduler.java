@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Runs the work posted to any number of simulated threads on the calling thread, in virtual time.
+ *
+ * <p>Each {@link SimulatedHandler} keeps its own queue in time and post order, like a Looper.
+ * Between threads the order is up to a seeded {@link Random}: any thread whose next message is
+ * due within the jitter window of the earliest one may go first, which explores the interleavings
+ * real threads would produce. The virtual clock drives the {@link SystemClock} stand-in.
+ */
+final class SimulatedScheduler {
+
+    /** Times how long a message held its thread. */
+    interface Observer {
+        void onMessageRun(SimulatedHandler handler, long wallNanos);
+    }
+
+    private final Random mRandom;
+    private final long mJitterMs;
+    private final ArrayList<Message> mMessages = new ArrayList<>();
+    private final ArrayList<Message> mCandidates = new ArrayList<>();
+    private Observer mObserver;
+    private long mNowMs = 0;
+    private long mNextSequence = 0;
+    private long mMessagesRun = 0;
+
+    SimulatedScheduler(Random random, long jitterMs) {
+        mRandom = random;
+        mJitterMs = jitterMs;
+    }
+
+    void setObserver(Observer observer) {
+        mObserver = observer;
+    }
+
+    SimulatedHandler newHandler(String name) {
+        return new SimulatedHandler(name);
+    }
+
+    long nowMs() {
+        return mNowMs;
+    }
+
+    long getMessagesRun() {
+        return mMessagesRun;
+    }
+
+    boolean isIdle() {
+        return mMessages.isEmpty();
+    }
+
+    /** Run until nothing is left, including whatever the messages post. */
+    void runUntilIdle() {
+        while (runNext()) {
+            // keep going
+        }
+    }
+
+    /** @return false if there was nothing to run */
+    boolean runNext() {
+        if (mMessages.isEmpty()) {
+            return false;
+        }
+        final Message next = pickNext();
+        mMessages.remove(next);
+        if (next.whenMs > mNowMs) {
+            SystemClock.advance((next.whenMs - mNowMs) * 1000000L);
+            mNowMs = next.whenMs;
+        }
+        mMessagesRun++;
+        final long start = System.nanoTime();
+        next.callback.run();
+        if (mObserver != null) {
+            mObserver.onMessageRun(next.handler, System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    private Message pickNext() {
+        // the head of each thread's queue
+        mCandidates.clear();
+        long earliest = Long.MAX_VALUE;
+        for (Message message : mMessages) {
+            final int i = indexOfHandler(mCandidates, message.handler);
+            if (i < 0) {
+                mCandidates.add(message);
+            } else if (message.before(mCandidates.get(i))) {
+                mCandidates.set(i, message);
+            }
+        }
+        for (Message head : mCandidates) {
+            earliest = Math.min(earliest, head.whenMs);
+        }
+        // anything due close enough to the earliest one may run first
+        final long window = Math.max(earliest, mNowMs) + mJitterMs;
+        for (int i = mCandidates.size() - 1; i >= 0; i--) {
+            if (mCandidates.get(i).whenMs > window) {
+                mCandidates.remove(i);
+            }
+        }
+        return mCandidates.get(mRandom.nextInt(mCandidates.size()));
+    }
+
+    private static int indexOfHandler(ArrayList<Message> messages, SimulatedHandler handler) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).handler == handler) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Message {
+        final SimulatedHandler handler;
+        final Runnable callback;
+        final long whenMs;
+        final long sequence;
+
+        Message(SimulatedHandler handler, Runnable callback, long whenMs, long sequence) {
+            this.handler = handler;
+            this.callback = callback;
+            this.whenMs = whenMs;
+            this.sequence = sequence;
+        }
+
+        boolean before(Message other) {
+            return whenMs < other.whenMs || (whenMs == other.whenMs && sequence < other.sequence);
+        }
+    }
+
+    /** A simulated thread with its own message queue. */
+    final class SimulatedHandler extends Handler {
+        final String name;
+
+        private SimulatedHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean postDelayed(Runnable r, long delayMillis) {
+            mMessages.add(
+                    new Message(this, r, mNowMs + Math.max(0, delayMillis), mNextSequence++));
+            return true;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            for (int i = mMessages.size() - 1; i >= 0; i--) {
+                final Message message = mMessages.get(i);
+                if (message.handler == this && message.callback == r) {
+                    mMessages.remove(i);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.maru.settings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** The registry duplicates manifest meta-data for speed, so make sure the two agree. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SettingsRegistryTest {
+
+    private static final String META_DATA_KEY_FRAGMENT_CLASS =
+            "com.android.settings.FRAGMENT_CLASS";
+    private static final String META_DATA_KEY_TITLE = "com.android.settings.title";
+
+    @Test
+    public void everyManifestPage_isRegisteredWithTheSameFragmentAndTitle() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final PackageInfo info =
+                context.getPackageManager()
+                        .getPackageInfo(
+                                context.getPackageName(),
+                                PackageManager.GET_ACTIVITIES | PackageManager.GET_META_DATA);
+
+        int pages = 0;
+        for (ActivityInfo activity : info.activities) {
+            if (activity.metaData == null) {
+                continue;
+            }
+            final String fragmentClass = activity.metaData.getString(META_DATA_KEY_FRAGMENT_CLASS);
+            if (fragmentClass == null) {
+                continue;
+            }
+            pages++;
+
+            final SettingsRegistry.PageInfo page = SettingsRegistry.getPage(activity.name);
+            assertNotNull(activity.name + " is missing from SettingsRegistry", page);
+            assertEquals(activity.name, fragmentClass, page.fragmentClass);
+            assertTrue(
+                    fragmentClass + " has no fragment factory",
+                    SettingsRegistry.hasFragmentFactory(fragmentClass));
+
+            // without a title meta-data the activity label is shown
+            final String title = activity.metaData.getString(META_DATA_KEY_TITLE);
+            assertEquals(
+                    activity.name,
+                    title != null ? title : context.getString(activity.labelRes),
+                    context.getString(page.titleRes));
+        }
+        assertTrue("no settings pages found in the manifest", pages > 0);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.mperspective.Perspective;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DesktopDashboardModelTest {
+
+    @Test
+    public void restoredModel_keepsTheSwitchDisabled() {
+        final DesktopDashboardModel restored =
+                DesktopDashboardModel.restore(
+                        Perspective.STATE_RUNNING,
+                        true,
+                        DesktopStateEngine.STATUS_RUNNING,
+                        DesktopStateEngine.HINT_NONE);
+
+        assertTrue(restored.checked);
+        assertFalse(restored.enabled);
+        assertEquals(DesktopStateEngine.STATUS_RUNNING, restored.status);
+    }
+
+    @Test
+    public void restoredUnknownState_keepsTheSwitchDisabled() {
+        final DesktopDashboardModel restored =
+                DesktopDashboardModel.restore(
+                        -1,
+                        false,
+                        DesktopStateEngine.STATUS_UNCHANGED,
+                        DesktopStateEngine.HINT_NONE);
+
+        assertFalse(restored.enabled);
+    }
+
+    @Test
+    public void liveState_enablesTheRestoredSwitch() {
+        final DesktopDashboardModel restored =
+                DesktopDashboardModel.restore(
+                        Perspective.STATE_RUNNING,
+                        true,
+                        DesktopStateEngine.STATUS_RUNNING,
+                        DesktopStateEngine.HINT_NONE);
+
+        // the same state, as the first reset from the event bus resolves it
+        final DesktopDashboardModel live =
+                DesktopDashboardModel.from(
+                        DesktopStateEngine.resolve(
+                                Perspective.STATE_RUNNING, Perspective.STATE_RUNNING, true),
+                        restored);
+
+        assertTrue(live.checked);
+        assertTrue(live.enabled);
+        assertEquals(DesktopStateEngine.STATUS_RUNNING, live.status);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.mperspective.Perspective;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DesktopSuspendPolicyTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private File mJournalFile;
+    private FakeDesktopPerspective mPerspective;
+    private MaruDisplayListener mDisplayListener;
+    private PerspectiveEventBus mBus;
+    private DesktopSuspendPolicy mPolicy;
+
+    @Before
+    public void setUp() throws Exception {
+        mThread = new HandlerThread("policy");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mJournalFile = File.createTempFile("events", ".journal");
+        final DesktopEventJournal journal = new DesktopEventJournal(mJournalFile);
+        journal.open();
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final MaruDisplayRegistry registry =
+                new MaruDisplayRegistry(
+                        (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE),
+                        journal,
+                        mHandler);
+        mDisplayListener = new MaruDisplayListener(registry, mHandler);
+        mPerspective = new FakeDesktopPerspective(false);
+        mBus =
+                new PerspectiveEventBus(
+                        mPerspective,
+                        journal,
+                        new DesktopTransitionStats(new MetricHistory(), new MetricHistory()),
+                        mHandler);
+        mPolicy = new DesktopSuspendPolicy(mPerspective, mDisplayListener, mHandler);
+        runOn(mHandler, () -> mPolicy.start(mBus));
+        // the desktop runs on a docked phone
+        runOn(mHandler, () -> mPolicy.onMaruDisplayConnectionChanged(true));
+        mPerspective.startDesktopPerspective();
+        drain(mHandler);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        runOn(mHandler, mDisplayListener::unregister);
+        mThread.quitSafely();
+        mJournalFile.delete();
+    }
+
+    @Test
+    public void undock_suspendsTheRunningDesktop() throws Exception {
+        setConnected(false);
+
+        assertEquals(1, mPerspective.suspendCalls);
+        assertEquals(DesktopPerspective.STATE_SUSPENDED, getState());
+    }
+
+    @Test
+    public void redock_resumesTheSuspendedDesktop() throws Exception {
+        setConnected(false);
+        setConnected(true);
+
+        assertEquals(1, mPerspective.resumeCalls);
+        assertEquals(Perspective.STATE_RUNNING, getState());
+    }
+
+    @Test
+    public void undock_leavesAStoppedDesktopAlone() throws Exception {
+        mPerspective.stopDesktopPerspective();
+        drain(mHandler);
+        setConnected(false);
+        setConnected(true);
+
+        assertEquals(0, mPerspective.suspendCalls);
+        assertEquals(0, mPerspective.resumeCalls);
+        assertEquals(Perspective.STATE_STOPPED, getState());
+    }
+
+    @Test
+    public void desktopStartedWithoutDisplay_isNotSuspended() throws Exception {
+        mPerspective.stopDesktopPerspective();
+        drain(mHandler);
+        setConnected(false);
+        mPerspective.startDesktopPerspective();
+        drain(mHandler);
+
+        assertEquals(0, mPerspective.suspendCalls);
+        assertEquals(Perspective.STATE_RUNNING, getState());
+    }
+
+    @Test
+    public void stoppingASuspendedDesktop_isNotResumedOnRedock() throws Exception {
+        setConnected(false);
+        mPerspective.stopDesktopPerspective();
+        drain(mHandler);
+        setConnected(true);
+
+        assertEquals(0, mPerspective.resumeCalls);
+        assertEquals(Perspective.STATE_STOPPED, getState());
+    }
+
+    private void setConnected(boolean connected) throws InterruptedException {
+        runOn(mHandler, () -> mPolicy.onMaruDisplayConnectionChanged(connected));
+        // let the state the perspective reports go through the bus
+        drain(mHandler);
+    }
+
+    private int getState() throws InterruptedException {
+        final int[] state = new int[1];
+        runOn(mHandler, () -> state[0] = mBus.getState());
+        return state[0];
+    }
+
+    private static void drain(Handler handler) throws InterruptedException {
+        runOn(handler, () -> {});
+    }
+
+    private static void runOn(Handler handler, Runnable r) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(
+                () -> {
+                    r.run();
+                    done.countDown();
+                });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
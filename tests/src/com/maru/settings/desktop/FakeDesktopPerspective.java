@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import android.mperspective.Perspective;
+import android.os.Handler;
+
+/** Local stand-in for the platform perspective service. */
+final class FakeDesktopPerspective implements DesktopPerspective {
+
+    private boolean mRunning;
+    private boolean mSuspended;
+    private Listener mListener;
+    private Handler mHandler;
+
+    int isDesktopRunningCalls;
+    int registerCalls;
+    int suspendCalls;
+    int resumeCalls;
+
+    FakeDesktopPerspective(boolean running) {
+        mRunning = running;
+    }
+
+    @Override
+    public synchronized boolean isDesktopRunning() {
+        isDesktopRunningCalls++;
+        return mRunning;
+    }
+
+    @Override
+    public synchronized boolean isDesktopSuspended() {
+        return mSuspended;
+    }
+
+    @Override
+    public void startDesktopPerspective() {
+        setState(Perspective.STATE_STARTING);
+        setState(Perspective.STATE_RUNNING);
+    }
+
+    @Override
+    public void stopDesktopPerspective() {
+        setState(Perspective.STATE_STOPPING);
+        setState(Perspective.STATE_STOPPED);
+    }
+
+    @Override
+    public synchronized void suspendDesktopPerspective() {
+        suspendCalls++;
+        if (mRunning && !mSuspended) {
+            setState(STATE_SUSPENDED);
+        }
+    }
+
+    @Override
+    public synchronized void resumeDesktopPerspective() {
+        resumeCalls++;
+        if (mSuspended) {
+            setState(Perspective.STATE_RUNNING);
+        }
+    }
+
+    @Override
+    public synchronized void registerPerspectiveListener(Listener listener, Handler handler) {
+        registerCalls++;
+        mListener = listener;
+        mHandler = handler;
+    }
+
+    /** Report {@code state} to the registered listener on its handler, like the platform. */
+    synchronized void setState(int state) {
+        mRunning = state == Perspective.STATE_RUNNING || state == STATE_SUSPENDED;
+        mSuspended = state == STATE_SUSPENDED;
+        if (mListener != null) {
+            final Listener listener = mListener;
+            mHandler.post(() -> listener.onPerspectiveStateChanged(state));
+        }
+    }
+}
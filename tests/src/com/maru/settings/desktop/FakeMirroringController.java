@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+/** Local stand-in for the platform mirroring calls on {@code DisplayManager}. */
+final class FakeMirroringController implements MirroringController {
+
+    /** Can be flipped by a test to simulate mirroring changing outside the app. */
+    volatile boolean mirroring;
+
+    int isPhoneMirroringEnabledCalls;
+
+    @Override
+    public synchronized boolean isPhoneMirroringEnabled() {
+        isPhoneMirroringEnabledCalls++;
+        return mirroring;
+    }
+
+    @Override
+    public void enablePhoneMirroring() {
+        mirroring = true;
+    }
+
+    @Override
+    public void disablePhoneMirroring() {
+        mirroring = false;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MirrorTileWatcherTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private File mJournalFile;
+    private FakeDesktopPerspective mPerspective;
+    private FakeMirroringController mController;
+    private MaruDisplayRegistry mRegistry;
+    private MirrorTileWatcher mWatcher;
+    private final AtomicInteger mUpdatesRequested = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mThread = new HandlerThread("watcher");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        mJournalFile = File.createTempFile("events", ".journal");
+        final DesktopEventJournal journal = new DesktopEventJournal(mJournalFile);
+        journal.open();
+        final Context context = InstrumentationRegistry.getTargetContext();
+        mRegistry =
+                new MaruDisplayRegistry(
+                        (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE),
+                        journal,
+                        mHandler);
+        mPerspective = new FakeDesktopPerspective(false);
+        final PerspectiveEventBus bus =
+                new PerspectiveEventBus(
+                        mPerspective,
+                        journal,
+                        new DesktopTransitionStats(new MetricHistory(), new MetricHistory()),
+                        mHandler);
+        mController = new FakeMirroringController();
+
+        mWatcher = new MirrorTileWatcher(mRegistry, mUpdatesRequested::incrementAndGet);
+        mWatcher.start(bus, mHandler);
+        drain(mHandler);
+    }
+
+    @After
+    public void tearDown() {
+        mRegistry.unsubscribe(mWatcher);
+        mThread.quitSafely();
+        mJournalFile.delete();
+    }
+
+    @Test
+    public void replayedState_requestsNoUpdate() {
+        assertEquals(0, mUpdatesRequested.get());
+    }
+
+    @Test
+    public void mirroringState_isCachedUntilSomethingChanges() {
+        assertFalse(mWatcher.isMirroringEnabled(mController));
+        assertFalse(mWatcher.isMirroringEnabled(mController));
+
+        assertEquals(1, mController.isPhoneMirroringEnabledCalls);
+    }
+
+    @Test
+    public void desktopChangingMirroring_reachesTheTile() throws Exception {
+        assertFalse(mWatcher.isMirroringEnabled(mController));
+
+        // the platform turns mirroring on behind our back when the desktop goes away
+        mPerspective.startDesktopPerspective();
+        drain(mHandler);
+        mController.mirroring = true;
+        mPerspective.stopDesktopPerspective();
+        drain(mHandler);
+
+        // once for the desktop settling at RUNNING, once at STOPPED
+        assertEquals(2, mUpdatesRequested.get());
+        assertTrue(mWatcher.isMirroringEnabled(mController));
+        assertEquals(2, mController.isPhoneMirroringEnabledCalls);
+    }
+
+    @Test
+    public void tileClick_keepsTheCacheValid() {
+        assertFalse(mWatcher.isMirroringEnabled(mController));
+        mController.enablePhoneMirroring();
+        mWatcher.setMirroringEnabled(true);
+
+        assertTrue(mWatcher.isMirroringEnabled(mController));
+        assertEquals(1, mController.isPhoneMirroringEnabledCalls);
+        assertEquals(0, mUpdatesRequested.get());
+    }
+
+    private static void drain(Handler handler) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(done::countDown);
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+}
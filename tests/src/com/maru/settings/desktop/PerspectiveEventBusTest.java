@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016-2021 The Maru OS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.maru.settings.desktop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.mperspective.Perspective;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PerspectiveEventBusTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private HandlerThread mBusThread;
+    private HandlerThread mSubscriberThread;
+    private Handler mBusHandler;
+    private Handler mSubscriberHandler;
+    private File mJournalFile;
+    private FakeDesktopPerspective mPerspective;
+    private PerspectiveEventBus mBus;
+    private RecordingSubscriber mSubscriber;
+
+    @Before
+    public void setUp() throws Exception {
+        mBusThread = new HandlerThread("bus");
+        mBusThread.start();
+        mBusHandler = new Handler(mBusThread.getLooper());
+        mSubscriberThread = new HandlerThread("subscriber");
+        mSubscriberThread.start();
+        mSubscriberHandler = new Handler(mSubscriberThread.getLooper());
+
+        // keep the process-wide journal and stats out of it
+        mJournalFile = File.createTempFile("events", ".journal");
+        final DesktopEventJournal journal = new DesktopEventJournal(mJournalFile);
+        journal.open();
+        final DesktopTransitionStats stats =
+                new DesktopTransitionStats(new MetricHistory(), new MetricHistory());
+
+        mPerspective = new FakeDesktopPerspective(false);
+        mBus = new PerspectiveEventBus(mPerspective, journal, stats, mBusHandler);
+        mSubscriber = new RecordingSubscriber();
+        mBus.subscribe(mSubscriber, mSubscriberHandler);
+        drain(mBusHandler);
+        drain(mSubscriberHandler);
+        // the replay of the initial state, the tests below only look at what comes after it
+        assertEquals(1, mSubscriber.deliveries.size());
+        mSubscriber.deliveries.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mBus.unsubscribe(mSubscriber);
+        mBusThread.quitSafely();
+        mSubscriberThread.quitSafely();
+        mJournalFile.delete();
+    }
+
+    @Test
+    public void registersOnCreation_andQueriesStateOnce() throws Exception {
+        assertEquals(1, mPerspective.registerCalls);
+
+        final int[] states = new int[2];
+        runOn(
+                mBusHandler,
+                () -> {
+                    states[0] = mBus.getState();
+                    states[1] = mBus.getState();
+                });
+
+        assertEquals(Perspective.STATE_STOPPED, states[0]);
+        assertEquals(Perspective.STATE_STOPPED, states[1]);
+        assertEquals(1, mPerspective.isDesktopRunningCalls);
+    }
+
+    @Test
+    public void newSubscriber_getsTheCurrentStateReplayed() throws Exception {
+        mPerspective.startDesktopPerspective();
+        drain(mBusHandler);
+
+        final RecordingSubscriber late = new RecordingSubscriber();
+        mBus.subscribe(late, mSubscriberHandler);
+        drain(mSubscriberHandler);
+        mBus.unsubscribe(late);
+
+        // the last transition with no changes of its own, and without asking the platform
+        assertEquals(1, late.deliveries.size());
+        assertDelivery(
+                late.deliveries.get(0), Perspective.STATE_STARTING, Perspective.STATE_RUNNING, 0);
+        assertEquals(1, mPerspective.isDesktopRunningCalls);
+    }
+
+    @Test
+    public void subscriberBeforeFirstSync_getsTheStateReplayedOnceKnown() throws Exception {
+        final HandlerThread thread = new HandlerThread("blocked bus");
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        final CountDownLatch release = new CountDownLatch(1);
+        // keep the new bus from syncing until it has a subscriber
+        handler.post(() -> await(release));
+        final PerspectiveEventBus bus =
+                new PerspectiveEventBus(
+                        new FakeDesktopPerspective(true),
+                        new DesktopEventJournal(mJournalFile),
+                        new DesktopTransitionStats(new MetricHistory(), new MetricHistory()),
+                        handler);
+        final RecordingSubscriber early = new RecordingSubscriber();
+        bus.subscribe(early, mSubscriberHandler);
+        drain(mSubscriberHandler);
+        assertTrue(early.deliveries.isEmpty());
+
+        release.countDown();
+        drain(handler);
+        drain(mSubscriberHandler);
+        thread.quitSafely();
+
+        assertEquals(1, early.deliveries.size());
+        assertDelivery(
+                early.deliveries.get(0), Perspective.STATE_RUNNING, Perspective.STATE_RUNNING, 0);
+    }
+
+    @Test
+    public void singleChange_isDeliveredWithItsPreviousState() throws Exception {
+        mPerspective.setState(Perspective.STATE_STARTING);
+        drain(mBusHandler);
+        drain(mSubscriberHandler);
+
+        assertEquals(1, mSubscriber.deliveries.size());
+        assertDelivery(
+                mSubscriber.deliveries.get(0),
+                Perspective.STATE_STOPPED,
+                Perspective.STATE_STARTING,
+                1);
+    }
+
+    @Test
+    public void conflatedChanges_keepTheLastTransition() throws Exception {
+        // hold the subscriber so that a failed start piles up behind it
+        final CountDownLatch release = new CountDownLatch(1);
+        mSubscriberHandler.post(() -> await(release));
+        mPerspective.setState(Perspective.STATE_STARTING);
+        mPerspective.setState(Perspective.STATE_STOPPED);
+        drain(mBusHandler);
+        release.countDown();
+        drain(mSubscriberHandler);
+
+        // back to where we started, but the subscriber still learns the start failed
+        assertEquals(1, mSubscriber.deliveries.size());
+        assertDelivery(
+                mSubscriber.deliveries.get(0),
+                Perspective.STATE_STARTING,
+                Perspective.STATE_STOPPED,
+                2);
+    }
+
+    @Test
+    public void unsubscribe_keepsThePlatformRegistration() throws Exception {
+        mBus.unsubscribe(mSubscriber);
+        mPerspective.startDesktopPerspective();
+        drain(mBusHandler);
+        drain(mSubscriberHandler);
+
+        assertTrue(mSubscriber.deliveries.isEmpty());
+        assertEquals(1, mPerspective.registerCalls);
+
+        final int[] state = new int[1];
+        runOn(mBusHandler, () -> state[0] = mBus.getState());
+        assertEquals(Perspective.STATE_RUNNING, state[0]);
+        // the bus kept listening, so it never had to ask again
+        assertEquals(1, mPerspective.isDesktopRunningCalls);
+    }
+
+    private static void assertDelivery(int[] delivery, int previousState, int state, int changes) {
+        assertEquals("previous state", previousState, delivery[0]);
+        assertEquals("state", state, delivery[1]);
+        assertEquals("changes", changes, delivery[2]);
+    }
+
+    private static void drain(Handler handler) throws InterruptedException {
+        runOn(handler, () -> {});
+    }
+
+    private static void runOn(Handler handler, Runnable r) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(
+                () -> {
+                    r.run();
+                    done.countDown();
+                });
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class RecordingSubscriber implements PerspectiveEventBus.Subscriber {
+        final List<int[]> deliveries = new ArrayList<>();
+
+        @Override
+        public void onPerspectiveStateChanged(int previousState, int state, int changes) {
+            deliveries.add(new int[] {previousState, state, changes});
+        }
+    }
+}
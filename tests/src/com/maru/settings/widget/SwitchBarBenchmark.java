@@ -0,0 +1,98 @@
+package com.maru.settings.widget;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.ContextThemeWrapper;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.LargeTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.maru.settings.R;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Microbenchmarks for {@link SwitchBar}, which needs the view system and so can't run with the
+ * host benchmarks. Each one reports its time per operation as instrumentation status:
+ *
+ * <pre>
+ * adb shell am instrument -w -r -e class com.maru.settings.widget.SwitchBarBenchmark \
+ *     com.maru.settings.tests/androidx.test.runner.AndroidJUnitRunner
+ * </pre>
+ */
+@LargeTest
+@RunWith(AndroidJUnit4.class)
+public class SwitchBarBenchmark {
+
+    private static final int WARMUP_OPS = 10000;
+    private static final int OPS = 100000;
+    private static final String[] SUMMARIES = {"Running", "Stopped"};
+
+    /** Performs operation {@code i}. */
+    private interface Operation {
+        void run(int i);
+    }
+
+    private Instrumentation mInstrumentation;
+    private SwitchBar mSwitchBar;
+    private int mChanges;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mInstrumentation.runOnMainSync(
+                () ->
+                        mSwitchBar =
+                                new SwitchBar(
+                                        new ContextThemeWrapper(
+                                                InstrumentationRegistry.getTargetContext(),
+                                                R.style.Theme_Settings)));
+    }
+
+    @Test
+    public void composeText() {
+        // a new summary every time, so the text is composed again
+        measure(
+                "composeText",
+                i -> {
+                    mSwitchBar.setSummary(SUMMARIES[i & 1]);
+                    mSwitchBar.setTextViewLabel((i & 2) != 0);
+                });
+    }
+
+    @Test
+    public void toggleWithComposedText() {
+        mInstrumentation.runOnMainSync(() -> mSwitchBar.setSummary(SUMMARIES[0]));
+        measure("toggleWithComposedText", i -> mSwitchBar.setCheckedInternal((i & 1) != 0));
+    }
+
+    @Test
+    public void propagateChecked() {
+        // the switch bar's own label, the dashboard and one more
+        mSwitchBar.addOnSwitchChangeListener((switchView, isChecked) -> mChanges++);
+        mSwitchBar.addOnSwitchChangeListener((switchView, isChecked) -> mChanges--);
+        measure("propagateChecked", i -> mSwitchBar.propagateChecked((i & 1) != 0));
+    }
+
+    private void measure(String name, Operation operation) {
+        final long[] elapsedNanos = new long[1];
+        mInstrumentation.runOnMainSync(
+                () -> {
+                    for (int i = 0; i < WARMUP_OPS; i++) {
+                        operation.run(i);
+                    }
+                    final long start = SystemClock.elapsedRealtimeNanos();
+                    for (int i = 0; i < OPS; i++) {
+                        operation.run(i);
+                    }
+                    elapsedNanos[0] = SystemClock.elapsedRealtimeNanos() - start;
+                });
+        final Bundle results = new Bundle();
+        results.putDouble(name + "_ns_per_op", (double) elapsedNanos[0] / OPS);
+        mInstrumentation.sendStatus(0, results);
+    }
+}
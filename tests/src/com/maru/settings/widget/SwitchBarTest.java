@@ -0,0 +1,116 @@
+package com.maru.settings.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.os.Debug;
+import android.text.SpannedString;
+import android.view.ContextThemeWrapper;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.maru.settings.R;
+
+import dalvik.system.VMDebug;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SwitchBarTest {
+
+    private static final String SUMMARY = "Running";
+    private static final int ITERATIONS = 100;
+
+    private Instrumentation mInstrumentation;
+    private SwitchBar mSwitchBar;
+
+    @Before
+    public void setUp() {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mInstrumentation.runOnMainSync(
+                () ->
+                        mSwitchBar =
+                                new SwitchBar(
+                                        new ContextThemeWrapper(
+                                                InstrumentationRegistry.getTargetContext(),
+                                                R.style.Theme_Settings)));
+    }
+
+    @Test
+    public void toggling_reusesComposedText() {
+        mInstrumentation.runOnMainSync(
+                () -> {
+                    mSwitchBar.setSummary(SUMMARY);
+                    mSwitchBar.setTextViewLabel(true);
+                    final CharSequence checked = mSwitchBar.getDisplayedText();
+                    mSwitchBar.setTextViewLabel(false);
+                    final CharSequence unchecked = mSwitchBar.getDisplayedText();
+
+                    assertTrue(checked instanceof SpannedString);
+                    assertNotSame(checked, unchecked);
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        mSwitchBar.setTextViewLabel(true);
+                        assertSame(checked, mSwitchBar.getDisplayedText());
+                        mSwitchBar.setTextViewLabel(false);
+                        assertSame(unchecked, mSwitchBar.getDisplayedText());
+                    }
+                });
+    }
+
+    @Test
+    public void summaryChange_recomposesText() {
+        mInstrumentation.runOnMainSync(
+                () -> {
+                    mSwitchBar.setSummary(SUMMARY);
+                    mSwitchBar.setTextViewLabel(true);
+                    final CharSequence before = mSwitchBar.getDisplayedText();
+                    mSwitchBar.setSummary("Stopped");
+                    mSwitchBar.setTextViewLabel(true);
+
+                    assertNotSame(before, mSwitchBar.getDisplayedText());
+                    assertTrue(mSwitchBar.getDisplayedText().toString().endsWith("Stopped"));
+                });
+    }
+
+    @Test
+    public void toggling_allocatesNothingOnceWarm() {
+        final int[] threadAllocations = new int[1];
+        final int[] globalAllocations = new int[1];
+        mInstrumentation.runOnMainSync(
+                () -> {
+                    // compose and cache the text for both states first
+                    mSwitchBar.setSummary(SUMMARY);
+                    mSwitchBar.setCheckedInternal(true);
+                    mSwitchBar.setCheckedInternal(false);
+
+                    VMDebug.startAllocCounting();
+                    try {
+                        Debug.resetGlobalAllocCount();
+                        Debug.resetThreadAllocCount();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            mSwitchBar.setCheckedInternal(true);
+                            mSwitchBar.setSummary(SUMMARY);
+                            mSwitchBar.setCheckedInternal(false);
+                            mSwitchBar.setSummary(SUMMARY);
+                        }
+                        threadAllocations[0] = Debug.getThreadAllocCount();
+                        globalAllocations[0] = Debug.getGlobalAllocCount();
+                    } finally {
+                        VMDebug.stopAllocCounting();
+                    }
+                });
+        // other threads may allocate meanwhile, so only the main thread's count has to be zero
+        assertEquals(
+                "main thread allocations while toggling, " + globalAllocations[0] + " in total",
+                0,
+                threadAllocations[0]);
+    }
+}
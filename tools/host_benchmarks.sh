@@ -0,0 +1,52 @@
+#!/usr/bin/env bash
+#
+# Copyright (C) 2016-2021 The Maru OS Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Run the host microbenchmarks without a platform build.
+#
+# Compiles the benchmarks module with the JDK's javac, the same sources
+# benchmarks/Android.mk builds, and runs it. Arguments are passed on and
+# select benchmarks by name substring.
+#
+# Usage: tools/host_benchmarks.sh [name...]
+
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+DESKTOP="$ROOT/src/com/maru/settings/desktop"
+
+WORK_DIR="$(mktemp -d)"
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+javac -d "$WORK_DIR" \
+    $(find "$ROOT/benchmarks/src" -name '*.java') \
+    $(find "$ROOT/tests/host/src/android" "$ROOT/tests/host/src/androidx" -name '*.java') \
+    "$DESKTOP/BackgroundThread.java" \
+    "$DESKTOP/DesktopEventJournal.java" \
+    "$DESKTOP/DesktopFreezer.java" \
+    "$DESKTOP/DesktopMetrics.java" \
+    "$DESKTOP/DesktopPerspective.java" \
+    "$DESKTOP/DesktopResourceSampler.java" \
+    "$DESKTOP/DesktopStateEngine.java" \
+    "$DESKTOP/DesktopTransitionStats.java" \
+    "$DESKTOP/DisplaySnapshot.java" \
+    "$DESKTOP/IntSet.java" \
+    "$DESKTOP/LatencyHistogram.java" \
+    "$DESKTOP/MaruDisplayListener.java" \
+    "$DESKTOP/MaruDisplayRegistry.java" \
+    "$DESKTOP/MetricHistory.java" \
+    "$DESKTOP/PerspectiveEventBus.java"
+
+java -cp "$WORK_DIR" com.maru.settings.desktop.Benchmarks "$@"
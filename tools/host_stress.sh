@@ -0,0 +1,37 @@
+#!/usr/bin/env bash
+#
+# Copyright (C) 2016-2021 The Maru OS Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Run the desktop stress harness without a platform build.
+#
+# Compiles the host test module with the JDK's javac, the same sources
+# tests/host/Android.mk builds minus the JUnit tests, and runs
+# DesktopStressHarness. Exits non-zero if an invariant was violated.
+#
+# Usage: tools/host_stress.sh [bursts] [seed]
+
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+HOST="$ROOT/tests/host"
+
+WORK_DIR="$(mktemp -d)"
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+javac -d "$WORK_DIR" \
+    $(find "$HOST/src" -name '*.java' ! -name '*Test.java') \
+    $(grep -o '\.\./\.\./src/[^ ]*\.java' "$HOST/Android.mk" | sed "s#^\.\./\.\./#$ROOT/#")
+
+java -cp "$WORK_DIR" com.maru.settings.desktop.DesktopStressHarness "$@"
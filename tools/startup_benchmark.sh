@@ -0,0 +1,107 @@
+#!/usr/bin/env bash
+#
+# Copyright (C) 2016-2021 The Maru OS Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# Measure how long the Desktop dashboard takes to open.
+#
+# Launches the dashboard N times cold (process killed) and N times warm
+# (process alive, activity finished) on the device or emulator that adb
+# points to, then prints percentiles of the total launch time reported by
+# `am start -W` and of every StartupTrace phase logged by the app.
+#
+# Usage: tools/startup_benchmark.sh [iterations]
+
+set -euo pipefail
+
+ITERATIONS="${1:-20}"
+PACKAGE="com.maru.settings"
+COMPONENT="$PACKAGE/.MaruSettings\$DesktopDashboardActivity"
+LOG_TAG="MaruStartup"
+# the last phase logged during startup, see DesktopDashboardFragment
+LAST_PHASE="firstUpdateView"
+# seconds to wait for LAST_PHASE after `am start` returns
+PHASE_TIMEOUT="${PHASE_TIMEOUT:-10}"
+
+WORK_DIR="$(mktemp -d)"
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+# p50/p90/p99 of the numbers in $1, one per line
+percentiles() {
+    sort -n "$1" | awk '
+        { v[NR] = $1 }
+        END {
+            if (NR == 0) { print "n/a"; exit }
+            printf "n=%d p50=%d p90=%d p99=%d\n", NR,
+                v[int((NR - 1) * 0.50) + 1],
+                v[int((NR - 1) * 0.90) + 1],
+                v[int((NR - 1) * 0.99) + 1]
+        }'
+}
+
+# wait until LAST_PHASE shows up in logcat, since `am start -W` returns on the first frame
+# which can come before the dashboard has rendered live state
+wait_for_last_phase() {
+    local deadline=$((SECONDS + PHASE_TIMEOUT))
+    until adb logcat -d -s "$LOG_TAG:D" | grep -q "phase=$LAST_PHASE "; do
+        if ((SECONDS >= deadline)); then
+            echo "warning: no $LAST_PHASE after ${PHASE_TIMEOUT}s, phases may be partial" >&2
+            return
+        fi
+        sleep 0.2
+    done
+}
+
+launch() {
+    local mode="$1"
+    adb logcat -c
+    adb shell am start -W -n "$COMPONENT" \
+        | awk -F': ' '/TotalTime/ { print $2 }' >> "$WORK_DIR/$mode.total"
+    wait_for_last_phase
+    # phases are logged as: phase=<name> durationUs=<us>
+    adb logcat -d -s "$LOG_TAG:D" \
+        | sed -n 's/.*phase=\([A-Za-z]*\) durationUs=\([0-9]*\).*/\1 \2/p' \
+        | while read -r phase us; do
+            echo "$us" >> "$WORK_DIR/$mode.$phase"
+        done
+}
+
+# StartupTrace only logs phases when its tag is enabled, and it checks once per process
+adb shell setprop "log.tag.$LOG_TAG" DEBUG
+
+for _ in $(seq "$ITERATIONS"); do
+    adb shell am force-stop "$PACKAGE"
+    launch cold
+done
+
+for _ in $(seq "$ITERATIONS"); do
+    # finish the activity but keep the process around
+    adb shell input keyevent KEYCODE_BACK
+    sleep 1
+    launch warm
+done
+
+adb shell am force-stop "$PACKAGE"
+adb shell setprop "log.tag.$LOG_TAG" ""
+
+for mode in cold warm; do
+    echo "== $mode start =="
+    printf "%-22s %s\n" "total (ms)" "$(percentiles "$WORK_DIR/$mode.total")"
+    for file in "$WORK_DIR/$mode".*; do
+        phase="${file##*.}"
+        if [[ "$phase" != "total" ]]; then
+            printf "%-22s %s\n" "$phase (us)" "$(percentiles "$file")"
+        fi
+    done
+done